@@ -0,0 +1,42 @@
+package com.spikeify.taskqueue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Job not blocking a thread while waiting (for instance on a network response)
+ * task is transitioned once returned future completes, so few threads can keep many jobs in flight
+ */
+public interface AsyncJob extends Job {
+
+	/**
+	 * Job timed out and not stopping after interrupt signal has its future canceled ... task is put into interrupted state,
+	 * but canceling a CompletableFuture does not stop the work behind it, job must stop it on its own
+	 *
+	 * @param context job context - should be regularly checked if "interrupted()" was set as this is a signal to running task to end gracefully,
+	 * @return future completed with job result indicating job success or failure (should not be null)
+	 */
+	CompletableFuture<TaskResult> executeAsync(TaskContext context);
+
+	/**
+	 * Blocking execution ... waits for async execution to complete
+	 *
+	 * @param context job context
+	 * @return job result
+	 */
+	@Override
+	default TaskResult execute(TaskContext context) {
+
+		try {
+			TaskResult result = executeAsync(context).get();
+			return result != null ? result : TaskResult.failed();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return TaskResult.interrupted();
+		}
+		catch (ExecutionException e) {
+			throw new TaskQueueError("Async job failed!", e);
+		}
+	}
+}
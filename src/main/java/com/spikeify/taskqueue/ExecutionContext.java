@@ -7,7 +7,7 @@ public class ExecutionContext implements TaskContext {
 
 	private final TaskContext outerContext;
 
-	private boolean cancel;
+	private volatile boolean cancel;
 
 	public ExecutionContext(TaskContext context) {
 
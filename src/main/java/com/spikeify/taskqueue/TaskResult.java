@@ -51,4 +51,8 @@ public class TaskResult {
 	public static TaskResult interrupted() {
 		return new TaskResult(TaskResultState.interrupted);
 	}
+
+	public static TaskResult started() {
+		return new TaskResult(TaskResultState.started);
+	}
 }
@@ -0,0 +1,141 @@
+package com.spikeify.taskqueue.entities;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Resolved job class with prebuilt JSON reader and writer (cached per class, class names resolved are cached per class loader)
+ * so class is not loaded and introspected each time a job is serialized or deserialized
+ * <p>
+ * cache holds no strong reference to class loaders ... classes of redeployed applications can still be unloaded
+ */
+final class JobType {
+
+	private static final ObjectMapper jsonMapper = new ObjectMapper();
+
+	static {
+		jsonMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+	}
+
+	/**
+	 * job type stored with class itself ... collected together with class
+	 */
+	private static final ClassValue<JobType> types = new ClassValue<JobType>() {
+		@Override
+		protected JobType computeValue(Class<?> clazz) {
+
+			return new JobType(clazz);
+		}
+	};
+
+	/**
+	 * class names resolved per class loader ... loaders are weakly referenced, classes as well (class references its loader)
+	 */
+	private static final Map<ClassLoader, Map<String, WeakReference<Class<?>>>> classes = Collections.synchronizedMap(new WeakHashMap<ClassLoader, Map<String, WeakReference<Class<?>>>>());
+
+	private static final Function<ClassLoader, Map<String, WeakReference<Class<?>>>> newLoaderCache = new Function<ClassLoader, Map<String, WeakReference<Class<?>>>>() {
+		@Override
+		public Map<String, WeakReference<Class<?>>> apply(ClassLoader loader) {
+
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	private final Class<?> type;
+
+	private final ObjectReader reader;
+
+	private final ObjectWriter writer;
+
+	private JobType(Class<?> clazz) {
+
+		type = clazz;
+		reader = jsonMapper.readerFor(clazz);
+		writer = jsonMapper.writerFor(clazz);
+	}
+
+	/**
+	 * @param clazz job class
+	 * @return cached job type
+	 */
+	static JobType get(Class<?> clazz) {
+
+		return types.get(clazz);
+	}
+
+	/**
+	 * @param className job class name
+	 * @param loader    class loader to load class with (if not cached jet)
+	 * @return cached job type
+	 * @throws ClassNotFoundException when class can't be found
+	 */
+	static JobType get(String className, final ClassLoader loader) throws ClassNotFoundException {
+
+		Map<String, WeakReference<Class<?>>> resolved = classes.computeIfAbsent(loader, newLoaderCache);
+
+		WeakReference<Class<?>> found = resolved.computeIfAbsent(className, new Function<String, WeakReference<Class<?>>>() {
+			@Override
+			public WeakReference<Class<?>> apply(String name) {
+
+				try {
+					return new WeakReference<Class<?>>(loader.loadClass(name));
+				}
+				catch (ClassNotFoundException e) {
+					return null; // nothing is cached ... loaded again below to throw
+				}
+			}
+		});
+
+		Class<?> clazz = found != null ? found.get() : null;
+		if (clazz == null) {
+			clazz = loader.loadClass(className);
+			resolved.put(className, new WeakReference<Class<?>>(clazz));
+		}
+
+		return types.get(clazz);
+	}
+
+	Class<?> getType() {
+
+		return type;
+	}
+
+	/**
+	 * @param job job to be serialized
+	 * @return JSON representation of job
+	 */
+	String write(Object job) {
+
+		try {
+			return writer.writeValueAsString(job);
+		}
+		catch (JsonProcessingException e) {
+			throw new IllegalArgumentException("Given Object could not be serialized to JSON. Error: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @param json JSON representation of job
+	 * @return deserialized job
+	 */
+	Object read(String json) {
+
+		try {
+			return reader.readValue(json);
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Given JSON could not be deserialized. Error: " + e.getMessage());
+		}
+	}
+}
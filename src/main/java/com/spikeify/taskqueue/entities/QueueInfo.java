@@ -43,6 +43,10 @@ public class QueueInfo {
 	protected long interrupted;
 	protected long failed;
 	protected long finished;
+	protected long dead;
+
+	// tasks waiting for their run at time (counted apart from state they are in)
+	protected long delayed;
 
 	// total number of tasks processed
 	protected long totalTasks;
@@ -56,6 +60,19 @@ public class QueueInfo {
 	// total number of retries - from failed to running transition
 	protected long totalRetries;
 
+	// incremented each time tasks are added or returned to queue - watched by sleeping machines
+	protected long version;
+
+	// number of times running task permits were refused and total time in milliseconds permits were waited for
+	protected long permitWaits;
+	protected long permitWaitTime;
+
+	// oldest delay time bucket that might still hold delayed tasks due to run (0 - unknown)
+	protected long delayCursor;
+
+	// oldest open time bucket per priority that might still hold open tasks (missing - unknown)
+	protected HashMap<TaskPriority, Long> openCursors = new HashMap<>();
+
 	/**
 	 * JSON serialized map of statistics data {@link TaskState} {@link TaskStatistics}
 	 **/
@@ -74,6 +91,7 @@ public class QueueInfo {
 		name = queueName.trim();
 
 		setSettings(new QueueSettings()); // set default settings ... once queue is created
+		delayCursor = QueueTask.getDelayBucket(System.currentTimeMillis()); // no delayed tasks before queue is created
 		reset(true);
 	}
 
@@ -119,6 +137,8 @@ public class QueueInfo {
 		totalFinished = 0;
 		totalFailed = 0;
 		totalRetries = 0;
+		permitWaits = 0;
+		permitWaitTime = 0;
 
 		// running counters
 		if (force) {
@@ -128,6 +148,8 @@ public class QueueInfo {
 			interrupted = 0;
 			failed = 0;
 			finished = 0;
+			dead = 0;
+			delayed = 0;
 		}
 
 		// purge statistics if available
@@ -164,6 +186,19 @@ public class QueueInfo {
 		return finished;
 	}
 
+	public long getDeadTasks() {
+
+		return dead;
+	}
+
+	/**
+	 * @return number of tasks waiting for their run at time (not included in queued or failed tasks)
+	 */
+	public long getDelayedTasks() {
+
+		return delayed;
+	}
+
 	public long getTotalTasks() {
 
 		return totalTasks;
@@ -184,6 +219,53 @@ public class QueueInfo {
 		return totalRetries;
 	}
 
+	public long getVersion() {
+
+		return version;
+	}
+
+	public long getPermitWaits() {
+
+		return permitWaits;
+	}
+
+	/**
+	 * @return total time in milliseconds queue was waiting for running task permits
+	 */
+	public long getPermitWaitTime() {
+
+		return permitWaitTime;
+	}
+
+	public long getDelayCursor() {
+
+		return delayCursor;
+	}
+
+	public void setDelayCursor(long bucket) {
+
+		delayCursor = bucket;
+	}
+
+	/**
+	 * @param priority task priority
+	 * @return oldest open time bucket that might still hold open tasks of given priority, -1 if unknown
+	 */
+	public long getOpenCursor(TaskPriority priority) {
+
+		Long bucket = openCursors != null ? openCursors.get(priority) : null;
+		return bucket != null ? bucket : -1;
+	}
+
+	public void setOpenCursor(TaskPriority priority, long bucket) {
+
+		if (openCursors == null) {
+			openCursors = new HashMap<>();
+		}
+
+		openCursors.put(priority, bucket);
+	}
+
 	public TaskStatistics getStatistics(TaskState state) {
 
 		String json = statistics.get(state);
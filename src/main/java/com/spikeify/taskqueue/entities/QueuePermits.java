@@ -0,0 +1,155 @@
+package com.spikeify.taskqueue.entities;
+
+import com.spikeify.annotations.Generation;
+import com.spikeify.annotations.UserKey;
+import com.spikeify.taskqueue.utils.Assert;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Cluster wide semaphore of queue limiting number of running tasks
+ * each permit is a lease expiring with task time out (so permits of crashed machines are not lost)
+ */
+public class QueuePermits {
+
+	/**
+	 * queue name
+	 */
+	@UserKey
+	protected String name;
+
+	@Generation
+	protected Integer generation;
+
+	/**
+	 * lease id - time lease expires
+	 */
+	protected HashMap<String, Long> leases = new HashMap<>();
+
+	/**
+	 * true - permits were refused since last release (machines waiting for permits are woken up once a permit is released)
+	 */
+	protected boolean waiting;
+
+	/**
+	 * For Spikeify only
+	 */
+	protected QueuePermits() {
+
+	}
+
+	public QueuePermits(String queueName) {
+
+		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+		name = queueName;
+	}
+
+	/**
+	 * Removes expired leases
+	 *
+	 * @param now current time
+	 * @return number of removed leases
+	 */
+	public int expire(long now) {
+
+		int count = 0;
+
+		Iterator<Map.Entry<String, Long>> iterator = leases.entrySet().iterator();
+		while (iterator.hasNext()) {
+
+			if (iterator.next().getValue() < now) {
+				iterator.remove();
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * @param max max number of permits
+	 * @return number of permits still available
+	 */
+	public int available(int max) {
+
+		return Math.max(0, max - leases.size());
+	}
+
+	/**
+	 * @param leaseId lease id
+	 * @param expires time lease expires
+	 */
+	public void lease(String leaseId, long expires) {
+
+		Assert.notNullOrEmpty(leaseId, "Missing lease id!");
+		leases.put(leaseId, expires);
+	}
+
+	/**
+	 * Extends lease of task started later than it was claimed
+	 *
+	 * @param leaseId lease id
+	 * @param expires new time lease expires
+	 * @return true if lease was extended, false if not present (expired)
+	 */
+	public boolean renew(String leaseId, long expires) {
+
+		if (!leases.containsKey(leaseId)) {
+			return false;
+		}
+
+		leases.put(leaseId, expires);
+		return true;
+	}
+
+	/**
+	 * @param leaseId lease id
+	 * @return true if lease was removed, false if not present (expired)
+	 */
+	public boolean release(String leaseId) {
+
+		return leases.remove(leaseId) != null;
+	}
+
+	/**
+	 * Marks permits as refused
+	 *
+	 * @return true if marked, false if already marked
+	 */
+	public boolean refuse() {
+
+		if (waiting) {
+			return false;
+		}
+
+		waiting = true;
+		return true;
+	}
+
+	/**
+	 * Clears refused mark once permits are released
+	 *
+	 * @return true if permits were refused since last release, false otherwise
+	 */
+	public boolean released() {
+
+		boolean refused = waiting;
+		waiting = false;
+		return refused;
+	}
+
+	public String getName() {
+
+		return name;
+	}
+
+	/**
+	 * @return number of leased permits
+	 */
+	public int getLeased() {
+
+		return leases.size();
+	}
+}
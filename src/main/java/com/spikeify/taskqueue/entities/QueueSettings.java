@@ -5,6 +5,8 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.spikeify.taskqueue.utils.Assert;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * JSON serialized list of queue settings
  */
@@ -40,16 +42,140 @@ public class QueueSettings {
 	 */
 	protected int maxThreads = 1;
 
+	/**
+	 * Minimal number of threads for this queue on a single machine
+	 * number of threads grows towards max when tasks are piling up and shrinks back when idle
+	 * null - same as max (fixed number of threads)
+	 */
+	protected Integer minThreads;
+
+	/**
+	 * Number of virtual threads for this queue on a single machine (needs Java 21+), suited for I/O bound tasks
+	 * 0 - platform threads are used (see maxThreads)
+	 * if virtual threads are not supported by the JVM, maxThreads platform threads are used instead
+	 * <p>
+	 * threads take tasks from a single dispatcher (see prefetchSize, 100 tasks are prefetched if not given) as
+	 * throughput is limited by the rate tasks can be claimed from the database, not by the number of threads
+	 * ... more threads only help if tasks spend most of their time waiting
+	 */
+	protected int virtualThreads = 0;
+
+	/**
+	 * Number of async jobs (see AsyncJob) in flight for this queue on a single machine
+	 * threads start async jobs and continue with next task while started jobs complete
+	 * (when all are in flight no task is claimed until one completes ... also applies to other jobs of this queue)
+	 * 0 - async jobs are executed like any other job (thread waits for job to complete)
+	 */
+	protected int maxAsyncJobs = 0;
+
+	/**
+	 * true - task results are stored in background and next task is claimed while current task is executed
+	 * (results not stored yet are lost if JVM is killed, such tasks are recovered and executed again)
+	 * false - result is stored and next task is claimed after task is executed
+	 */
+	protected boolean pipelined = false;
+
+	/**
+	 * Max time in milliseconds task results wait to be stored together with results of other tasks (group commit)
+	 * all results collected are stored with one queue info update
+	 * 0 - each result is stored on its own (unless pipelined)
+	 */
+	protected int commitDelayMillis = 0;
+
+	/**
+	 * Durability of group committed results
+	 * true - fire and forget, thread continues once result is queued (results not stored yet are lost if JVM is killed,
+	 * such tasks are recovered and executed again)
+	 * false - thread stores its result itself, only queue info counter changes are stored together
+	 * (results of pipelined queues are always fire and forget)
+	 */
+	protected boolean commitAsync = false;
+
+	/**
+	 * Number of tasks each thread claims from queue at once (claimed tasks are executed one after another)
+	 */
+	protected int batchSize = 1;
+
+	/**
+	 * Number of tasks claimed in advance into a local buffer shared by all threads of the queue on a single machine
+	 * 0 - no prefetching, each thread claims tasks on its own
+	 */
+	protected int prefetchSize = 0;
+
+	/**
+	 * Buffer of prefetched tasks is refilled when number of buffered tasks drops to or below watermark
+	 */
+	protected int prefetchWatermark = 0;
+
+	/**
+	 * Number of times task is run before it is considered failed
+	 */
+	protected int maxRetries = QueueTask.DEFAULT_MAX_RETRIES;
+
+	/**
+	 * Number of seconds failed task waits before it is retried, doubled with each retry (with some random jitter)
+	 * 0 - failed task is retried immediately
+	 */
+	protected int retryBackoffSeconds = 0;
+
+	/**
+	 * Max number of seconds failed task waits before it is retried
+	 */
+	protected int retryBackoffMaxSeconds = 60 * 60;
+
+	/**
+	 * true - tasks failing max retries times are moved to dead letters (kept until re-queued or purged)
+	 * false - tasks failing max retries times stay failed (and are purged after purgeFailedAfterMinutes)
+	 */
+	protected boolean deadLetter = false;
+
+	/**
+	 * Number of seconds task added with a deduplication key prevents tasks with same key to be added (while task is queued or running)
+	 */
+	protected int dedupWindowSeconds = 60 * 60;
+
+	/**
+	 * Max number of tasks started per second across all machines (tasks are started with a delay if limit is reached)
+	 * 0 - no limit
+	 */
+	protected double maxStartsPerSecond = 0;
+
+	/**
+	 * Max number of tasks running at once across all machines
+	 * 0 - no limit (number of running tasks is limited by number of threads on each machine only)
+	 * note: all permits are leases in a single record per queue, each claim and each release reads and rewrites the whole record
+	 * (conditional write) ... with many machines claiming at once this record becomes a hot key, so keep limit and claim rate moderate
+	 */
+	protected int maxRunning = 0;
+
+	/**
+	 * Number of seconds lower priority tasks wait before they are executed before higher priority tasks (so they don't starve)
+	 * 0 - no aging, lower priority tasks are executed only when there are no higher priority tasks
+	 */
+	protected int priorityAgingSeconds = 5 * 60;
+
 	/**
 	 * Number of seconds queue sleeps to check if new tasks have arrived
 	 */
 	private long queueMaxSleepTimeSeconds = 10;
 
+	/**
+	 * Number of milliseconds queue sleeps to check if new tasks have arrived while tasks keep arriving
+	 * sleep time is doubled each time queue is found empty (up to queueMaxSleepTimeSeconds)
+	 */
+	private long queueMinSleepTimeMillis = 1000;
+
 	/**
 	 * Number of seconds purge sleeps before it is triggered (execute every 60 seconds)
 	 */
 	private long queuePurgeSleepTimeSeconds = 60;
 
+	/**
+	 * Number of milliseconds between checks of queue version (detects tasks added on other machines)
+	 * 0 - no checks, sleeping threads are woken up only by tasks added on the same machine
+	 */
+	private long queueWatchTimeMillis = 500;
+
 
 	@JsonProperty("purgeSuccessful")
 	public int getPurgeSuccessfulAfterMinutes() {
@@ -117,6 +243,276 @@ public class QueueSettings {
 		maxThreads = threads;
 	}
 
+	@JsonProperty("minThreads")
+	public Integer getMinThreads() {
+		return minThreads;
+	}
+
+	@JsonProperty("minThreads")
+	public void setMinThreads(Integer threads) {
+
+		Assert.isTrue(threads == null || threads > 0, "Minimal number of threads must be >= 1!");
+		minThreads = threads;
+	}
+
+	/**
+	 * @param threads max number of threads
+	 * @return minimal number of threads (not more than given max)
+	 */
+	public int getMinThreads(int threads) {
+
+		if (minThreads == null) {
+			return threads;
+		}
+
+		return Math.min(minThreads, threads);
+	}
+
+	@JsonProperty("virtualThreads")
+	public int getVirtualThreads() {
+		return virtualThreads;
+	}
+
+	@JsonProperty("virtualThreads")
+	public void setVirtualThreads(int threads) {
+
+		Assert.isTrue(threads >= 0, "Number of virtual threads must be >= 0!");
+		Assert.isTrue(threads <= 10000, "Number of virtual threads must be <= 10000!");
+
+		virtualThreads = threads;
+	}
+
+	@JsonProperty("async")
+	public int getMaxAsyncJobs() {
+		return maxAsyncJobs;
+	}
+
+	@JsonProperty("async")
+	public void setMaxAsyncJobs(int jobs) {
+
+		Assert.isTrue(jobs >= 0, "Number of async jobs must be >= 0!");
+		Assert.isTrue(jobs <= 10000, "Number of async jobs must be <= 10000!");
+
+		maxAsyncJobs = jobs;
+	}
+
+	@JsonProperty("pipeline")
+	public boolean isPipelined() {
+
+		return pipelined;
+	}
+
+	@JsonProperty("pipeline")
+	public void setPipelined(boolean enabled) {
+
+		pipelined = enabled;
+	}
+
+	@JsonProperty("commitDelay")
+	public int getCommitDelayMillis() {
+
+		return commitDelayMillis;
+	}
+
+	@JsonProperty("commitDelay")
+	public void setCommitDelayMillis(int millis) {
+
+		Assert.isTrue(millis >= 0, "Commit delay must be >= 0!");
+		Assert.isTrue(millis <= 1000, "Commit delay must be <= 1000ms!");
+
+		commitDelayMillis = millis;
+	}
+
+	@JsonProperty("commitAsync")
+	public boolean isCommitAsync() {
+
+		return commitAsync;
+	}
+
+	@JsonProperty("commitAsync")
+	public void setCommitAsync(boolean enabled) {
+
+		commitAsync = enabled;
+	}
+
+	@JsonProperty("batch")
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	@JsonProperty("batch")
+	public void setBatchSize(int size) {
+
+		Assert.isTrue(size > 0, "Batch size must be >= 1!");
+		Assert.isTrue(size <= 100, "Batch size must be <= 100!");
+
+		batchSize = size;
+	}
+
+	@JsonProperty("prefetch")
+	public int getPrefetchSize() {
+		return prefetchSize;
+	}
+
+	@JsonProperty("prefetch")
+	public void setPrefetchSize(int size) {
+
+		Assert.isTrue(size >= 0, "Prefetch size must be >= 0!");
+		Assert.isTrue(size <= 1000, "Prefetch size must be <= 1000!");
+
+		prefetchSize = size;
+	}
+
+	@JsonProperty("watermark")
+	public int getPrefetchWatermark() {
+		return prefetchWatermark;
+	}
+
+	@JsonProperty("watermark")
+	public void setPrefetchWatermark(int size) {
+
+		Assert.isTrue(size >= 0, "Prefetch watermark must be >= 0!");
+
+		prefetchWatermark = size;
+	}
+
+	@JsonProperty("retries")
+	public int getMaxRetries() {
+
+		return maxRetries;
+	}
+
+	@JsonProperty("retries")
+	public void setMaxRetries(int retries) {
+
+		Assert.isTrue(retries > 0, "Max retries must be >= 1!");
+		Assert.isTrue(retries <= 100, "Max retries must be <= 100!");
+
+		maxRetries = retries;
+	}
+
+	@JsonProperty("backoff")
+	public int getRetryBackoffSeconds() {
+
+		return retryBackoffSeconds;
+	}
+
+	@JsonProperty("backoff")
+	public void setRetryBackoffSeconds(int seconds) {
+
+		Assert.isTrue(seconds >= 0, "Retry backoff must be >= 0!");
+
+		retryBackoffSeconds = seconds;
+	}
+
+	@JsonProperty("maxBackoff")
+	public int getRetryBackoffMaxSeconds() {
+
+		return retryBackoffMaxSeconds;
+	}
+
+	@JsonProperty("maxBackoff")
+	public void setRetryBackoffMaxSeconds(int seconds) {
+
+		Assert.isTrue(seconds > 0, "Max retry backoff must be >= 1!");
+
+		retryBackoffMaxSeconds = seconds;
+	}
+
+	/**
+	 * Time to wait before failed task is retried, exponential backoff with jitter (between half and full backoff)
+	 *
+	 * @param runCount number of times task was run
+	 * @return time to wait in milliseconds or 0 if task should be retried immediately
+	 */
+	public long getRetryDelayMillis(int runCount) {
+
+		if (retryBackoffSeconds <= 0) {
+			return 0;
+		}
+
+		long max = retryBackoffMaxSeconds * 1000L;
+		long backoff = retryBackoffSeconds * 1000L;
+
+		for (int i = 1; i < runCount && backoff < max; i++) {
+			backoff = backoff * 2;
+		}
+
+		backoff = Math.min(backoff, max);
+
+		long half = backoff / 2;
+		return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+	}
+
+	@JsonProperty("deadLetter")
+	public boolean isDeadLetter() {
+
+		return deadLetter;
+	}
+
+	@JsonProperty("deadLetter")
+	public void setDeadLetter(boolean enabled) {
+
+		deadLetter = enabled;
+	}
+
+	@JsonProperty("dedupWindow")
+	public int getDedupWindowSeconds() {
+
+		return dedupWindowSeconds;
+	}
+
+	@JsonProperty("dedupWindow")
+	public void setDedupWindowSeconds(int seconds) {
+
+		Assert.isTrue(seconds > 0, "Deduplication window must be >= 1!");
+
+		dedupWindowSeconds = seconds;
+	}
+
+	@JsonProperty("rate")
+	public double getMaxStartsPerSecond() {
+
+		return maxStartsPerSecond;
+	}
+
+	@JsonProperty("rate")
+	public void setMaxStartsPerSecond(double rate) {
+
+		Assert.isTrue(rate >= 0, "Max starts per second must be >= 0!");
+		Assert.isTrue(rate <= 100000, "Max starts per second must be <= 100000!");
+
+		maxStartsPerSecond = rate;
+	}
+
+	@JsonProperty("maxRunning")
+	public int getMaxRunning() {
+
+		return maxRunning;
+	}
+
+	@JsonProperty("maxRunning")
+	public void setMaxRunning(int max) {
+
+		Assert.isTrue(max >= 0, "Max running tasks must be >= 0!");
+
+		maxRunning = max;
+	}
+
+	@JsonProperty("aging")
+	public int getPriorityAgingSeconds() {
+
+		return priorityAgingSeconds;
+	}
+
+	@JsonProperty("aging")
+	public void setPriorityAgingSeconds(int seconds) {
+
+		Assert.isTrue(seconds >= 0, "Aging time must be >= 0!");
+
+		priorityAgingSeconds = seconds;
+	}
+
 	@JsonProperty("checkTasks")
 	public long getQueueMaxSleepTimeSeconds() {
 
@@ -132,6 +528,21 @@ public class QueueSettings {
 		this.queueMaxSleepTimeSeconds = queueMaxSleepTimeSeconds;
 	}
 
+	@JsonProperty("minCheckTasks")
+	public long getQueueMinSleepTimeMillis() {
+
+		return queueMinSleepTimeMillis;
+	}
+
+	@JsonProperty("minCheckTasks")
+	public void setQueueMinSleepTimeMillis(long millis) {
+
+		Assert.isTrue(millis > 0, "Sleep time must be >= 1!");
+		Assert.isTrue(millis <= 600 * 1000, "Sleep time must be <= 600000!");
+
+		queueMinSleepTimeMillis = millis;
+	}
+
 	@JsonProperty("purgeTasks")
 	public long getQueuePurgeSleepTimeSeconds() {
 
@@ -146,4 +557,19 @@ public class QueueSettings {
 
 		this.queuePurgeSleepTimeSeconds = queuePurgeSleepTimeSeconds;
 	}
+
+	@JsonProperty("watchTasks")
+	public long getQueueWatchTimeMillis() {
+
+		return queueWatchTimeMillis;
+	}
+
+	@JsonProperty("watchTasks")
+	public void setQueueWatchTimeMillis(long millis) {
+
+		Assert.isTrue(millis >= 0, "Watch time must be >= 0!");
+		Assert.isTrue(millis <= 60 * 1000, "Watch time must be <= 60000!");
+
+		queueWatchTimeMillis = millis;
+	}
 }
@@ -1,14 +1,13 @@
 package com.spikeify.taskqueue.entities;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.spikeify.annotations.Generation;
 import com.spikeify.annotations.Indexed;
 import com.spikeify.annotations.UserKey;
 import com.spikeify.taskqueue.Job;
 import com.spikeify.taskqueue.TaskQueueError;
 import com.spikeify.taskqueue.utils.Assert;
-import com.spikeify.taskqueue.utils.JsonUtils;
+
+import java.util.UUID;
 
 /**
  * Entity holding a task to be stored/retrieved in/from Aerospike database
@@ -19,13 +18,31 @@ public class QueueTask {
 
 	private static final String OPEN = "OPEN";
 
-	private static final int MAX_RETRIES = 3;
+	private static final String DELAYED = "DELAYED";
 
-	private static final ObjectMapper jsonMapper = new ObjectMapper();
+	private static final String DEAD = "DEAD";
 
-	static {
-		jsonMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
-	}
+	private static final String DEADLINE = "DEADLINE";
+
+	/**
+	 * Number of times task is run before it is considered failed (if not given otherwise)
+	 */
+	public static final int DEFAULT_MAX_RETRIES = 3;
+
+	/**
+	 * Size of time bucket (in milliseconds) open tasks are grouped into by last update time
+	 */
+	public static final long OPEN_BUCKET_MILLIS = 10 * 1000L;
+
+	/**
+	 * Size of time bucket (in milliseconds) delayed tasks are grouped into by time they should run at
+	 */
+	public static final long DELAY_BUCKET_MILLIS = 60 * 1000L;
+
+	/**
+	 * Size of time bucket (in milliseconds) running tasks are grouped into by their deadline
+	 */
+	public static final long DEADLINE_BUCKET_MILLIS = 10 * 1000L;
 
 	@Generation
 	protected Integer generation;
@@ -87,6 +104,21 @@ public class QueueTask {
 	 */
 	protected Long jobRunTime;
 
+	/**
+	 * task priority within queue (null - normal priority)
+	 */
+	protected TaskPriority priority;
+
+	/**
+	 * time stamp task should not be executed before (0 - execute immediately)
+	 */
+	protected long runAt;
+
+	/**
+	 * true - task is waiting for run at time and is not visible as open task
+	 */
+	protected boolean delayed;
+
 	/**
 	 * internal task state ... execution progress
 	 */
@@ -98,6 +130,27 @@ public class QueueTask {
 	 */
 	protected int runCount;
 
+	/**
+	 * fencing token of last claim ... increased each time task is put into running state, never reset (unlike run count)
+	 */
+	protected int fence;
+
+	/**
+	 * max number of runs before task is considered failed (null - default max retries)
+	 */
+	protected Integer maxRetries;
+
+	/**
+	 * id of node (machine) running the task, null if not running
+	 */
+	@Indexed
+	protected String owner;
+
+	/**
+	 * time running task is considered hanged if not finished by then
+	 */
+	protected long deadline;
+
 	/**
 	 * Joined values of QueueName + TaskState to enable filtering
 	 */
@@ -110,6 +163,26 @@ public class QueueTask {
 	@Indexed
 	protected String lockFilter;
 
+	/**
+	 * Joined values of QueueName + open state + priority + time bucket of last update to enable reading only the oldest open tasks of a priority
+	 * is null when task is locked
+	 */
+	@Indexed
+	protected String openFilter;
+
+	/**
+	 * Joined values of QueueName + delayed state + time bucket of run at time to enable reading delayed tasks that are due
+	 * is null when task is not delayed
+	 */
+	@Indexed
+	protected String delayFilter;
+
+	/**
+	 * Joined values of QueueName + deadline + time bucket of deadline to enable reading running tasks past deadline
+	 * is null when task is not running
+	 */
+	@Indexed
+	protected String deadlineFilter;
 
 	private String lock;
 
@@ -128,10 +201,37 @@ public class QueueTask {
 	 */
 	public QueueTask(Job newJob, String queueName) {
 
+		this(newJob, queueName, TaskPriority.normal);
+	}
+
+	/**
+	 * Creates new queue task entity holding a task to be stored into database
+	 *
+	 * @param newJob       task to be stored
+	 * @param queueName    name of queue to put task into
+	 * @param taskPriority priority of task within queue
+	 */
+	public QueueTask(Job newJob, String queueName, TaskPriority taskPriority) {
+
+		this(newJob, queueName, taskPriority, 0);
+	}
+
+	/**
+	 * Creates new queue task entity holding a task to be stored into database
+	 *
+	 * @param newJob       task to be stored
+	 * @param queueName    name of queue to put task into
+	 * @param taskPriority priority of task within queue
+	 * @param runAtTime    time stamp task should not be executed before (0 or time in past - execute immediately)
+	 */
+	public QueueTask(Job newJob, String queueName, TaskPriority taskPriority, long runAtTime) {
+
 		Assert.notNull(newJob, "Missing task!");
 		Assert.notNull(queueName, "Missing queue name!");
+		Assert.notNull(taskPriority, "Missing task priority!");
 
 		queue = queueName;
+		priority = taskPriority;
 
 		// initial task state ...
 		createTime = System.currentTimeMillis();
@@ -142,7 +242,10 @@ public class QueueTask {
 		state = TaskState.queued;
 		runCount = 0;
 
-		job = JsonUtils.toJson(newJob, jsonMapper);
+		runAt = runAtTime;
+		delayed = runAt > createTime;
+
+		job = JobType.get(newJob.getClass()).write(newJob);
 		className = newJob.getClass().getName();
 
 		updateFilter();
@@ -157,14 +260,15 @@ public class QueueTask {
 	public Job getJob() {
 
 		try {
-			Class clazz = this.getClass().getClassLoader().loadClass(className);
+			// resolved class and JSON reader are cached
+			JobType type = JobType.get(className, this.getClass().getClassLoader());
 
-			Object instance = JsonUtils.fromJson(job, clazz, jsonMapper);
+			Object instance = type.read(job);
 
 			// check type
 			if (!(instance instanceof Job)) {
 				// this is not a "Task" ... so execution would be impossible
-				throw new TaskQueueError("Class '" + clazz.getName() + "' must derive from '" + Job.class.getName() + "'!");
+				throw new TaskQueueError("Class '" + type.getType().getName() + "' must derive from '" + Job.class.getName() + "'!");
 			}
 
 			return (Job) instance;
@@ -179,6 +283,71 @@ public class QueueTask {
 		}
 	}
 
+	/**
+	 * Copy of task to be modified and stored, leaving this instance intact
+	 *
+	 * @return copy of task
+	 */
+	public QueueTask copy() {
+
+		QueueTask copy = new QueueTask();
+		copy.generation = generation;
+		copy.id = id;
+		copy.queue = queue;
+		copy.job = job;
+		copy.className = className;
+		copy.createTime = createTime;
+		copy.updateTime = updateTime;
+		copy.startTime = startTime;
+		copy.endTime = endTime;
+		copy.executionTime = executionTime;
+		copy.jobRunTime = jobRunTime;
+		copy.state = state;
+		copy.priority = priority;
+		copy.runAt = runAt;
+		copy.delayed = delayed;
+		copy.delayFilter = delayFilter;
+		copy.runCount = runCount;
+		copy.fence = fence;
+		copy.maxRetries = maxRetries;
+		copy.owner = owner;
+		copy.deadline = deadline;
+		copy.deadlineFilter = deadlineFilter;
+		copy.stateFilter = stateFilter;
+		copy.lockFilter = lockFilter;
+		copy.openFilter = openFilter;
+		copy.lock = lock;
+		return copy;
+	}
+
+	/**
+	 * @return record generation task was read with, null if not read from database
+	 */
+	public Integer getGeneration() {
+
+		return generation;
+	}
+
+	/**
+	 * To be set by queue service once task was stored (each write increases record generation)
+	 *
+	 * @param newGeneration record generation
+	 */
+	public void setGeneration(Integer newGeneration) {
+
+		generation = newGeneration;
+	}
+
+	/**
+	 * Assigns unique task id before task is stored (otherwise id is generated when task is stored)
+	 */
+	public void assignId() {
+
+		if (id == null) {
+			id = UUID.randomUUID().toString().replace("-", "");
+		}
+	}
+
 	/**
 	 * @return unique task id
 	 */
@@ -259,6 +428,43 @@ public class QueueTask {
 		return queue;
 	}
 
+	/**
+	 * @return priority of task within queue
+	 */
+	public TaskPriority getPriority() {
+
+		return priority == null ? TaskPriority.normal : priority;
+	}
+
+	/**
+	 * @return time stamp task should not be executed before (0 - execute immediately)
+	 */
+	public long getRunAt() {
+
+		return runAt;
+	}
+
+	/**
+	 * @return true if task is waiting for run at time (can not be taken from queue)
+	 */
+	public boolean isDelayed() {
+
+		return delayed;
+	}
+
+	/**
+	 * Makes delayed task visible as open task (once run at time has passed)
+	 */
+	public void promote() {
+
+		Assert.isTrue(delayed, "Task is not delayed!");
+
+		delayed = false;
+		updateTime = System.currentTimeMillis();
+
+		updateFilter();
+	}
+
 	/**
 	 * Change the tasks state when started, failed of finished
 	 *
@@ -274,13 +480,28 @@ public class QueueTask {
 		// log last update
 		updateTime = System.currentTimeMillis();
 
+		// any state change ends waiting for run at time
+		delayed = false;
+
+		// task is claimed again when running
+		owner = null;
+
 		// randomly generated lock ... if after update it is the same than same thread was generating this
 		lock = lockId;
 
+		// re-queued from dead letters ... start over
+		if (TaskState.queued.equals(newState)) {
+			startTime = 0;
+			endTime = 0;
+			runCount = 0;
+			executionTime = null;
+		}
+
 		// log start time and increase run attempts
 		if (TaskState.running.equals(newState)) {
 			startTime = System.currentTimeMillis();
 			runCount++;
+			fence++;
 		}
 
 		// log end time
@@ -295,7 +516,7 @@ public class QueueTask {
 
 		if (TaskState.interrupted.equals(newState)) {
 
-			if (runCount >= MAX_RETRIES) {
+			if (runCount >= getMaxRetries()) {
 				newState = TaskState.failed;
 			}
 		}
@@ -315,6 +536,112 @@ public class QueueTask {
 		return runCount;
 	}
 
+	/**
+	 * @return max number of runs before task is considered failed
+	 */
+	public int getMaxRetries() {
+
+		return maxRetries == null ? DEFAULT_MAX_RETRIES : maxRetries;
+	}
+
+	/**
+	 * @param retries max number of runs before task is considered failed
+	 */
+	public void setMaxRetries(int retries) {
+
+		Assert.isTrue(retries > 0, "Max retries must be >= 1!");
+
+		maxRetries = retries;
+		updateFilter();
+	}
+
+	/**
+	 * Marks running task with node running it and time it must be finished by
+	 *
+	 * @param node         id of node running the task
+	 * @param deadlineTime time task is considered hanged if not finished by then
+	 */
+	public void claim(String node, long deadlineTime) {
+
+		Assert.isTrue(TaskState.running.equals(state), "Only running task can be claimed!");
+
+		owner = node;
+		deadline = deadlineTime;
+
+		updateFilter();
+	}
+
+	/**
+	 * Restarts claim of running task once it is executed (task was claimed in advance and waited to be executed)
+	 *
+	 * @param deadlineTime time task is considered hanged if not finished by then
+	 */
+	public void renew(long deadlineTime) {
+
+		Assert.isTrue(TaskState.running.equals(state), "Only running task can be renewed!");
+
+		startTime = System.currentTimeMillis();
+		deadline = deadlineTime;
+
+		updateFilter();
+	}
+
+	/**
+	 * @return id of node running the task or null if not running
+	 */
+	public String getOwner() {
+
+		return owner;
+	}
+
+	/**
+	 * @return time running task is considered hanged if not finished by then
+	 */
+	public long getDeadline() {
+
+		return deadline;
+	}
+
+	/**
+	 * Fencing token of claim ... increased each time task is claimed (put into running state)
+	 * unlike run count it is not reset when task is re-queued, so a redriven task is never claimed with an old token
+	 *
+	 * @return fencing token of current claim
+	 */
+	public int getFence() {
+
+		return fence;
+	}
+
+	/**
+	 * Checks if claim is still valid ... task was not claimed again (by other node) in the mean time
+	 *
+	 * @param node  id of node running the task
+	 * @param fence fencing token given when claimed
+	 * @return true if task is running and still claimed by given node with given token, false if claim was lost
+	 */
+	public boolean isClaimedBy(String node, int fence) {
+
+		return TaskState.running.equals(state) &&
+			   this.fence == fence &&
+			   (owner == null ? node == null : owner.equals(node));
+	}
+
+	/**
+	 * Postpones next run of task (failed task waiting for retry)
+	 *
+	 * @param runAtTime time stamp task should not be executed before
+	 */
+	public void delay(long runAtTime) {
+
+		Assert.isFalse(isLocked(), "Locked task can not be delayed!");
+
+		runAt = runAtTime;
+		delayed = runAt > System.currentTimeMillis();
+
+		updateFilter();
+	}
+
 	/**
 	 * @return true if task is locked (can not be modified)
 	 */
@@ -323,8 +650,9 @@ public class QueueTask {
 		return TaskState.running.equals(state) ||
 			TaskState.finished.equals(state) ||
 			TaskState.purge.equals(state) ||
-			(TaskState.interrupted.equals(state) && runCount >= MAX_RETRIES) || // max runs when interrupted
-			(TaskState.failed.equals(state) && runCount >= MAX_RETRIES);  // max runs when failed
+			TaskState.dead.equals(state) ||
+			(TaskState.interrupted.equals(state) && runCount >= getMaxRetries()) || // max runs when interrupted
+			(TaskState.failed.equals(state) && runCount >= getMaxRetries());  // max runs when failed
 	}
 
 	@Override
@@ -342,8 +670,22 @@ public class QueueTask {
 	 */
 	protected void updateFilter() {
 
-		lockFilter = getLockedFilter(queue, isLocked());
 		stateFilter = getStateFilter(queue, state);
+		deadlineFilter = TaskState.running.equals(state) && deadline > 0 ? getDeadlineFilter(queue, getDeadlineBucket(deadline)) : null;
+
+		if (delayed) {
+			// delayed tasks are invisible until promoted ... only found by their run at time bucket (or listed as delayed)
+			stateFilter = getDelayedFilter(queue);
+			lockFilter = getDelayedFilter(queue);
+			openFilter = null;
+			delayFilter = getDelayFilter(queue, getDelayBucket(runAt));
+			return;
+		}
+
+		// dead letters are kept apart from locked and open tasks
+		lockFilter = TaskState.dead.equals(state) ? queue + "::" + DEAD : getLockedFilter(queue, isLocked());
+		openFilter = isLocked() ? null : getOpenFilter(queue, getPriority(), getOpenBucket(updateTime));
+		delayFilter = null;
 	}
 
 	/**
@@ -358,6 +700,98 @@ public class QueueTask {
 		return queueName + "::" + (locked ? LOCKED : OPEN);
 	}
 
+	/**
+	 * Utility method to get correct filter for equals filtering searching for open tasks in given time bucket
+	 *
+	 * @param queueName name of queue
+	 * @param bucket    time bucket (see {@link #getOpenBucket(long)})
+	 * @return filter expression
+	 */
+	public static String getOpenFilter(String queueName, long bucket) {
+
+		return getOpenFilter(queueName, TaskPriority.normal, bucket);
+	}
+
+	/**
+	 * Utility method to get correct filter for equals filtering searching for open tasks of given priority in given time bucket
+	 *
+	 * @param queueName name of queue
+	 * @param priority  task priority
+	 * @param bucket    time bucket (see {@link #getOpenBucket(long)})
+	 * @return filter expression
+	 */
+	public static String getOpenFilter(String queueName, TaskPriority priority, long bucket) {
+
+		// normal priority filter is left without priority (same as for tasks stored before priorities were introduced)
+		if (priority == null || TaskPriority.normal.equals(priority)) {
+			return queueName + "::" + OPEN + "::" + bucket;
+		}
+
+		return queueName + "::" + OPEN + "::" + priority.name() + "::" + bucket;
+	}
+
+	/**
+	 * @param time time stamp in milliseconds
+	 * @return time bucket given time stamp belongs to
+	 */
+	public static long getOpenBucket(long time) {
+
+		return time / OPEN_BUCKET_MILLIS;
+	}
+
+	/**
+	 * Utility method to get correct filter for equals filtering searching for all delayed tasks (in any state)
+	 *
+	 * @param queueName name of queue
+	 * @return filter expression
+	 */
+	public static String getDelayedFilter(String queueName) {
+
+		return queueName + "::" + DELAYED;
+	}
+
+	/**
+	 * Utility method to get correct filter for equals filtering searching for delayed tasks in given time bucket
+	 *
+	 * @param queueName name of queue
+	 * @param bucket    time bucket (see {@link #getDelayBucket(long)})
+	 * @return filter expression
+	 */
+	public static String getDelayFilter(String queueName, long bucket) {
+
+		return queueName + "::" + DELAYED + "::" + bucket;
+	}
+
+	/**
+	 * @param time time stamp in milliseconds
+	 * @return delay time bucket given time stamp belongs to
+	 */
+	public static long getDelayBucket(long time) {
+
+		return time / DELAY_BUCKET_MILLIS;
+	}
+
+	/**
+	 * Utility method to get correct filter for equals filtering searching for running tasks with deadline in given time bucket
+	 *
+	 * @param queueName name of queue
+	 * @param bucket    time bucket (see {@link #getDeadlineBucket(long)})
+	 * @return filter expression
+	 */
+	public static String getDeadlineFilter(String queueName, long bucket) {
+
+		return queueName + "::" + DEADLINE + "::" + bucket;
+	}
+
+	/**
+	 * @param time time stamp in milliseconds
+	 * @return deadline time bucket given time stamp belongs to
+	 */
+	public static long getDeadlineBucket(long time) {
+
+		return time / DEADLINE_BUCKET_MILLIS;
+	}
+
 	/**
 	 * Utility method to get correct filter for equals filtering searching for task state
 	 *
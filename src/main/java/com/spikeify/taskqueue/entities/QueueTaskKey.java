@@ -0,0 +1,97 @@
+package com.spikeify.taskqueue.entities;
+
+import com.spikeify.annotations.Expires;
+import com.spikeify.annotations.Generation;
+import com.spikeify.annotations.UserKey;
+import com.spikeify.taskqueue.utils.Assert;
+
+/**
+ * Deduplication key of task ... holds id of last task added to queue with given key
+ * record expires once deduplication window has passed
+ */
+public class QueueTaskKey {
+
+	/**
+	 * queue name + deduplication key
+	 */
+	@UserKey
+	protected String key;
+
+	@Generation
+	protected Integer generation;
+
+	/**
+	 * id of task added with this key
+	 */
+	protected String taskId;
+
+	/**
+	 * time stamp in milliseconds record expires
+	 */
+	@Expires
+	protected long expires;
+
+	/**
+	 * For Spikeify only
+	 */
+	protected QueueTaskKey() {
+
+	}
+
+	/**
+	 * @param queueName  name of queue
+	 * @param dedupKey   deduplication key
+	 * @param task       id of task added with this key
+	 * @param expiration time stamp key expires
+	 */
+	public QueueTaskKey(String queueName, String dedupKey, String task, long expiration) {
+
+		Assert.notNullOrEmpty(task, "Missing task id!");
+
+		key = getKey(queueName, dedupKey);
+		taskId = task;
+		expires = expiration;
+	}
+
+	/**
+	 * @param queueName name of queue
+	 * @param dedupKey  deduplication key
+	 * @return record key
+	 */
+	public static String getKey(String queueName, String dedupKey) {
+
+		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+		Assert.notNullOrEmpty(dedupKey, "Missing deduplication key!");
+
+		return queueName + "::" + dedupKey;
+	}
+
+	public String getKey() {
+
+		return key;
+	}
+
+	public String getTaskId() {
+
+		return taskId;
+	}
+
+	/**
+	 * Takes over key for new task
+	 *
+	 * @param task       id of task added with this key
+	 * @param expiration time stamp key expires
+	 */
+	public void setTask(String task, long expiration) {
+
+		Assert.notNullOrEmpty(task, "Missing task id!");
+
+		taskId = task;
+		expires = expiration;
+	}
+
+	public long getExpires() {
+
+		return expires;
+	}
+}
@@ -0,0 +1,112 @@
+package com.spikeify.taskqueue.entities;
+
+import com.spikeify.annotations.Generation;
+import com.spikeify.annotations.UserKey;
+import com.spikeify.taskqueue.utils.Assert;
+
+/**
+ * Cluster wide token bucket of queue limiting number of task starts per second
+ * (tokens are counted in thousandths so rates below one start per second are possible)
+ */
+public class QueueTokens {
+
+	/**
+	 * one token in thousandths
+	 */
+	public static final long TOKEN = 1000L;
+
+	/**
+	 * queue name
+	 */
+	@UserKey
+	protected String name;
+
+	@Generation
+	protected Integer generation;
+
+	/**
+	 * available tokens in thousandths
+	 */
+	protected long tokens;
+
+	/**
+	 * time tokens were last refilled
+	 */
+	protected long updateTime;
+
+	/**
+	 * For Spikeify only
+	 */
+	protected QueueTokens() {
+
+	}
+
+	/**
+	 * Creates full bucket
+	 *
+	 * @param queueName name of queue
+	 * @param rate      number of tokens per second
+	 * @param now       current time
+	 */
+	public QueueTokens(String queueName, double rate, long now) {
+
+		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+
+		name = queueName;
+		tokens = getCapacity(rate);
+		updateTime = now;
+	}
+
+	/**
+	 * Adds tokens for time passed since last refill (bucket holds at most one second of tokens)
+	 *
+	 * @param rate number of tokens per second
+	 * @param now  current time
+	 */
+	public void refill(double rate, long now) {
+
+		if (now > updateTime) {
+			tokens = Math.min(getCapacity(rate), tokens + (long) ((now - updateTime) * rate));
+			updateTime = now;
+		}
+	}
+
+	/**
+	 * @param max max number of tokens to take
+	 * @return number of whole tokens taken from bucket
+	 */
+	public int take(int max) {
+
+		int taken = (int) Math.min(max, tokens / TOKEN);
+		tokens = tokens - taken * TOKEN;
+		return taken;
+	}
+
+	/**
+	 * @param rate number of tokens per second
+	 * @return time in milliseconds until next whole token is available
+	 */
+	public long getWaitMillis(double rate) {
+
+		long missing = TOKEN - (tokens % TOKEN);
+		return (long) Math.ceil(missing / rate);
+	}
+
+	private static long getCapacity(double rate) {
+
+		return Math.max(TOKEN, (long) (rate * TOKEN));
+	}
+
+	public String getName() {
+
+		return name;
+	}
+
+	/**
+	 * @return available tokens in thousandths
+	 */
+	public long getTokens() {
+
+		return tokens;
+	}
+}
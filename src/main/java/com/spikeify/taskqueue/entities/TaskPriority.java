@@ -0,0 +1,12 @@
+package com.spikeify.taskqueue.entities;
+
+/**
+ * Priority of task within queue ... tasks with higher priority are executed first
+ * (in order from lowest to highest priority)
+ */
+public enum TaskPriority {
+
+	low,
+	normal,
+	high
+}
@@ -4,5 +4,6 @@ public enum TaskResultState {
 
 	ok,
 	interrupted,
-	failed
+	failed,
+	started // async job started ... task is transitioned once job completes
 }
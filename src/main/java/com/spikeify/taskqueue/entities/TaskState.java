@@ -10,7 +10,8 @@ public enum TaskState {
 	finished,     // job was successfully
 	interrupted,  // job was interrupted
 	failed,       // job has failed ... it might be retried if run count was not exceeded (job is unlocked)
-	purge;        // job can be removed from database ... is marked for deletion
+	purge,        // job can be removed from database ... is marked for deletion
+	dead;         // job has failed to many times and was moved to dead letter set ... can be re-queued (job is locked)
 
 	// possible state transitions
 	private static Map<TaskState, TaskState[]> transitionMatrix;
@@ -20,9 +21,10 @@ public enum TaskState {
 		transitionMatrix.put(null, new TaskState[] {queued});                	// add
 		transitionMatrix.put(queued, new TaskState[] {running, purge});     	// execute
 		transitionMatrix.put(running, new TaskState[] {finished, failed, interrupted});    // success, interruption or failure
-		transitionMatrix.put(failed, new TaskState[] {running, purge});     	// retry or delete
+		transitionMatrix.put(failed, new TaskState[] {running, purge, dead});     	// retry, delete or move to dead letters
 		transitionMatrix.put(interrupted, new TaskState[] {running, failed, purge});   	// retry or delete
 		transitionMatrix.put(finished, new TaskState[] {purge});            	// delete
+		transitionMatrix.put(dead, new TaskState[] {queued, purge});            	// re-queue or delete
 	}
 
 	public boolean canTransition(TaskState toState) {
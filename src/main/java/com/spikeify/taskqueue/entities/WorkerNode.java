@@ -0,0 +1,187 @@
+package com.spikeify.taskqueue.entities;
+
+import com.spikeify.annotations.Indexed;
+import com.spikeify.annotations.UserKey;
+import com.spikeify.taskqueue.utils.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Node (machine / JVM) running queues ... kept alive with regular heartbeats
+ * holds queues started on node with number of threads and tasks being executed (who is working on what)
+ * tasks owned by node are re-queued once node lease expires
+ */
+public class WorkerNode {
+
+	private static final String NODE = "NODE";
+
+	/**
+	 * Size of time bucket (in milliseconds) nodes are grouped into by lease expiration
+	 */
+	public static final long EXPIRY_BUCKET_MILLIS = 5 * 1000L;
+
+	/**
+	 * unique node id
+	 */
+	@UserKey
+	protected String id;
+
+	/**
+	 * time node was started
+	 */
+	protected long started;
+
+	/**
+	 * time of last heartbeat
+	 */
+	protected long heartbeat;
+
+	/**
+	 * time node lease expires if not renewed by next heartbeat
+	 */
+	protected long expires;
+
+	/**
+	 * Joined value of node + time bucket of lease expiration to enable reading expired nodes
+	 */
+	@Indexed
+	protected String expiryFilter;
+
+	/**
+	 * number of running queue threads per queue started on node
+	 */
+	protected Map<String, Integer> threads = new HashMap<>();
+
+	/**
+	 * ids of tasks executed on node at time of last heartbeat
+	 */
+	protected List<String> running = new ArrayList<>();
+
+	/**
+	 * For Spikeify only
+	 */
+	protected WorkerNode() {
+
+	}
+
+	/**
+	 * @param nodeId    unique node id
+	 * @param startTime time node was started
+	 */
+	public WorkerNode(String nodeId, long startTime) {
+
+		Assert.notNullOrEmpty(nodeId, "Missing node id!");
+		id = nodeId;
+		started = startTime;
+	}
+
+	/**
+	 * Renews node lease
+	 *
+	 * @param now         current time
+	 * @param leaseMillis time in milliseconds lease is valid
+	 */
+	public void renew(long now, long leaseMillis) {
+
+		heartbeat = now;
+		expires = now + leaseMillis;
+		expiryFilter = getExpiryFilter(getExpiryBucket(expires));
+	}
+
+	/**
+	 * @param now current time
+	 * @return true if node lease has expired
+	 */
+	public boolean isExpired(long now) {
+
+		return expires < now;
+	}
+
+	/**
+	 * Sets current work of node (to be stored with next heartbeat)
+	 *
+	 * @param queueThreads number of running threads per queue
+	 * @param taskIds      ids of tasks currently executed
+	 */
+	public void setWork(Map<String, Integer> queueThreads, List<String> taskIds) {
+
+		threads = queueThreads == null ? new HashMap<>() : new HashMap<>(queueThreads);
+		running = taskIds == null ? new ArrayList<>() : new ArrayList<>(taskIds);
+	}
+
+	public String getId() {
+
+		return id;
+	}
+
+	public long getStarted() {
+
+		return started;
+	}
+
+	/**
+	 * @return names of queues started on node
+	 */
+	public List<String> getQueues() {
+
+		List<String> out = threads == null ? new ArrayList<>() : new ArrayList<>(threads.keySet());
+		Collections.sort(out);
+		return out;
+	}
+
+	/**
+	 * @param queueName name of queue
+	 * @return number of threads running queue on node (0 if not started)
+	 */
+	public int getThreads(String queueName) {
+
+		Integer count = threads == null ? null : threads.get(queueName);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * @return ids of tasks executed on node (at time of last heartbeat)
+	 */
+	public List<String> getRunning() {
+
+		return running == null ? Collections.<String>emptyList() : Collections.unmodifiableList(running);
+	}
+
+	public long getHeartbeat() {
+
+		return heartbeat;
+	}
+
+	public long getExpires() {
+
+		return expires;
+	}
+
+	/**
+	 * @param bucket time bucket (see {@link #getExpiryBucket(long)})
+	 * @return filter expression
+	 */
+	public static String getExpiryFilter(long bucket) {
+
+		return NODE + "::" + bucket;
+	}
+
+	/**
+	 * @param time time stamp in milliseconds
+	 * @return expiry time bucket given time stamp belongs to
+	 */
+	public static long getExpiryBucket(long time) {
+
+		return time / EXPIRY_BUCKET_MILLIS;
+	}
+
+	@Override
+	public String toString() {
+
+		return id + " " + threads + ", running: " + getRunning().size() + " [" + expires + "]";
+	}
+}
@@ -0,0 +1,177 @@
+package com.spikeify.taskqueue.service;
+
+import com.spikeify.taskqueue.TaskContext;
+import com.spikeify.taskqueue.TaskResult;
+import com.spikeify.taskqueue.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Limits number of async jobs in flight per queue on a single machine (shared among queue threads)
+ * and applies same time outs as to blocking jobs: interrupt signal when timed out, cancel after interrupt time out
+ * <p>
+ * canceling a {@link CompletableFuture} does not stop the work behind it ... canceled job is transitioned and its slot is freed,
+ * but the job itself keeps running unless it checks the interrupt signal of its context
+ */
+public class AsyncJobTracker {
+
+	private static final Logger log = LoggerFactory.getLogger(AsyncJobTracker.class);
+
+	/**
+	 * max number of threads storing results of completed jobs (per queue)
+	 */
+	private static final int COMPLETION_THREADS = 4;
+
+	/**
+	 * idle time in seconds after completion thread is stopped
+	 */
+	private static final long COMPLETION_KEEP_ALIVE_SECONDS = 60;
+
+	private final String queue;
+
+	private final int maxJobs;
+
+	private final Semaphore slots;
+
+	/**
+	 * interrupts or cancels jobs when timed out (shared among all queues)
+	 */
+	private final ScheduledExecutorService watchdog;
+
+	private final int taskTimeout;
+
+	private final int taskInterruptTimeout;
+
+	/**
+	 * stores results of completed jobs ... so completing thread (job's own thread or watchdog when canceled) is not blocked by writes
+	 */
+	private final ThreadPoolExecutor completer;
+
+	/**
+	 * @param queueName               name of queue
+	 * @param maxAsyncJobs            max number of async jobs in flight
+	 * @param timeoutWatchdog         executor to schedule time outs
+	 * @param timeoutInSeconds        time after job is interrupted
+	 * @param interruptTimeoutSeconds time after interrupt job is canceled
+	 */
+	public AsyncJobTracker(String queueName,
+	                       int maxAsyncJobs,
+	                       ScheduledExecutorService timeoutWatchdog,
+	                       int timeoutInSeconds,
+	                       int interruptTimeoutSeconds) {
+
+		Assert.isTrue(maxAsyncJobs > 0, "Number of async jobs must be >= 1!");
+		Assert.notNull(timeoutWatchdog, "Missing time out watchdog!");
+
+		queue = queueName;
+		maxJobs = maxAsyncJobs;
+		slots = new Semaphore(maxAsyncJobs);
+		watchdog = timeoutWatchdog;
+		taskTimeout = timeoutInSeconds;
+		taskInterruptTimeout = interruptTimeoutSeconds;
+
+		// idle threads time out ... jobs completing after queue was stopped are still stored
+		int threads = Math.min(maxAsyncJobs, COMPLETION_THREADS);
+		completer = new ThreadPoolExecutor(threads,
+		                                   threads,
+		                                   COMPLETION_KEEP_ALIVE_SECONDS,
+		                                   TimeUnit.SECONDS,
+		                                   new LinkedBlockingQueue<Runnable>(),
+		                                   new TaskThreadFactory(queueName + "-async", true, false));
+		completer.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return executor to store results of completed jobs on
+	 */
+	public Executor getCompleter() {
+
+		return completer;
+	}
+
+	/**
+	 * Takes free slot without waiting ... must be called before task is claimed,
+	 * so a task is never claimed (and its run counted) without a slot to start it
+	 *
+	 * @return true if slot was acquired, false if max number of async jobs is in flight
+	 */
+	public boolean tryAcquire() {
+
+		return slots.tryAcquire();
+	}
+
+	/**
+	 * Frees slot of job that was not started (no task claimed, task is not async or failed to start)
+	 */
+	public void release() {
+
+		slots.release();
+
+		// wake up queue thread waiting for free slot
+		QueueSignal.get(queue).signal();
+	}
+
+	/**
+	 * Tracks started job ... slot is freed once job completes
+	 *
+	 * @param future  job result
+	 * @param context job context
+	 */
+	public void started(final CompletableFuture<TaskResult> future, final TaskContext context) {
+
+		final ScheduledFuture<?> interrupt = watchdog.schedule(new Runnable() {
+			@Override
+			public void run() {
+
+				// send interrupt signal
+				context.interrupt();
+			}
+		}, taskTimeout, TimeUnit.SECONDS);
+
+		final ScheduledFuture<?> cancel = watchdog.schedule(new Runnable() {
+			@Override
+			public void run() {
+
+				// job is stuck ... cancel it
+				// (completes future only, CompletableFuture does not interrupt the work behind it)
+				log.warn("Failed to gracefully interrupt async job, canceling job instead!");
+				future.cancel(true);
+			}
+		}, taskTimeout + taskInterruptTimeout, TimeUnit.SECONDS);
+
+		future.whenComplete(new BiConsumer<TaskResult, Throwable>() {
+			@Override
+			public void accept(TaskResult result, Throwable error) {
+
+				// job is done ... remove time outs
+				interrupt.cancel(false);
+				cancel.cancel(false);
+
+				release();
+			}
+		});
+	}
+
+	/**
+	 * @return number of async jobs in flight
+	 */
+	public int getRunning() {
+
+		return maxJobs - slots.availablePermits();
+	}
+
+	public int getMaxJobs() {
+
+		return maxJobs;
+	}
+}
@@ -0,0 +1,352 @@
+package com.spikeify.taskqueue.service;
+
+import com.spikeify.taskqueue.entities.QueueTask;
+import com.spikeify.taskqueue.entities.TaskState;
+import com.spikeify.taskqueue.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stores task results (transitions of executed tasks) with group commit (one per queue per machine)
+ * <p>
+ * acknowledged - thread stores its result itself (concurrently with other threads),
+ * only queue info counter changes collected for at most given delay are stored together by single writer
+ * fire and forget - thread continues once result is queued, results collected for at most given delay are stored together by writers
+ * with one queue info counter update per flush (number of results waiting to be stored is limited, threads wait for writers to catch up)
+ * results not stored yet are lost if JVM is killed, such tasks stay running and are recovered as tasks of dead node
+ * <p>
+ * each result is still stored with its own write (compare and set on task) ... so results are stored by as many writers
+ * as there are queue threads (capped), otherwise writes of all threads would be serialized on one writer
+ */
+public class CompletionWriter {
+
+	private static final Logger log = LoggerFactory.getLogger(CompletionWriter.class);
+
+	/**
+	 * max time in seconds to wait for pending writes when closed
+	 */
+	private static final int CLOSE_TIMEOUT_SECONDS = 10;
+
+	/**
+	 * max number of results stored with a single flush
+	 */
+	private static final int MAX_BATCH = 100;
+
+	/**
+	 * max number of results waiting to be stored ... threads block once writers fall behind (back pressure)
+	 */
+	private static final int MAX_PENDING = 10 * MAX_BATCH;
+
+	/**
+	 * max number of writers storing results (fire and forget)
+	 */
+	private static final int MAX_WRITERS = 10;
+
+	/**
+	 * time in milliseconds writer waits for first result before checking if closed
+	 */
+	private static final long POLL_MILLIS = 100;
+
+	/**
+	 * result waiting to be stored
+	 */
+	private static class Completion {
+
+		private final QueueTask task;
+
+		private final TaskState state;
+
+		private Completion(QueueTask executed, TaskState newState) {
+
+			task = executed;
+			state = newState;
+		}
+	}
+
+	private final TaskQueueService queues;
+
+	private final String queue;
+
+	private final long delayMillis;
+
+	private final boolean acknowledge;
+
+	private final BlockingQueue<Completion> pending = new LinkedBlockingQueue<>(MAX_PENDING);
+
+	/**
+	 * free places in pending queue ... taken before result is queued, given back once stored
+	 */
+	private final Semaphore space = new Semaphore(MAX_PENDING);
+
+	/**
+	 * set when counter changes of stored results were collected but not committed yet (acknowledged only)
+	 */
+	private final AtomicBoolean collected = new AtomicBoolean();
+
+	private final List<Thread> writers = new ArrayList<>();
+
+	private volatile boolean closed;
+
+	/**
+	 * @param queueService      queue service
+	 * @param queueName         name of queue
+	 * @param commitDelayMillis max time results wait to be stored together with other results
+	 * @param acknowledged      true to store result on executing thread (only counters stored by writer), false fire and forget
+	 * @param threads           number of queue threads storing results (fire and forget is stored by as many writers, at most 10)
+	 */
+	public CompletionWriter(TaskQueueService queueService, String queueName, long commitDelayMillis, boolean acknowledged, int threads) {
+
+		Assert.notNull(queueService, "Missing queue service!");
+		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+		Assert.isTrue(commitDelayMillis >= 0, "Commit delay must be >= 0!");
+		Assert.isTrue(threads > 0, "Number of threads must be >= 1!");
+
+		queues = queueService;
+		queue = queueName;
+		delayMillis = commitDelayMillis;
+		acknowledge = acknowledged;
+
+		// acknowledged results are stored by threads themselves ... single writer commits counters
+		TaskThreadFactory factory = new TaskThreadFactory(queueName + "-writer", true, false);
+		int count = acknowledge ? 1 : Math.min(threads, MAX_WRITERS);
+
+		for (int i = 0; i < count; i++) {
+			writers.add(factory.newThread(new Runnable() {
+				@Override
+				public void run() {
+
+					if (acknowledge) {
+						commit();
+					}
+					else {
+						write();
+					}
+				}
+			}));
+		}
+
+		for (Thread writer : writers) {
+			writer.start();
+		}
+	}
+
+	/**
+	 * Stores transition of executed task if acknowledged (counter changes are stored by writer), or queues it
+	 *
+	 * @param task     executed task
+	 * @param newState state to transition to
+	 */
+	public void write(QueueTask task, TaskState newState) {
+
+		if (acknowledge) {
+
+			// counter changes are stored directly once writer is stopped
+			boolean commit = closed || delayMillis == 0;
+			if (queues.transition(task, newState, commit) == null) {
+				discarded(task);
+			}
+			else if (!commit) {
+				collected.set(true);
+
+				// writer stopped in the mean time
+				if (closed) {
+					commitCollected();
+				}
+			}
+
+			return;
+		}
+
+		Completion completion = new Completion(task, newState);
+
+		// wait for writer to catch up (not holding the lock, writer needs it to check if closed)
+		try {
+			space.acquire();
+		}
+		catch (InterruptedException e) {
+			// store directly ... result must not be lost
+			Thread.currentThread().interrupt();
+			store(task, newState);
+			return;
+		}
+
+		synchronized (this) {
+
+			// writer is stopped ... store directly (async jobs completing after queue was stopped)
+			if (closed) {
+				completion = null;
+				space.release();
+			}
+			else {
+				pending.add(completion);
+			}
+		}
+
+		if (completion == null) {
+			store(task, newState);
+		}
+	}
+
+	/**
+	 * Stores counter changes collected by threads storing their results (acknowledged)
+	 */
+	private void commit() {
+
+		while (!closed) {
+
+			try {
+				Thread.sleep(delayMillis);
+			}
+			catch (InterruptedException e) {
+				// closing ... store what is left
+				break;
+			}
+
+			commitCollected();
+		}
+
+		commitCollected();
+	}
+
+	private void commitCollected() {
+
+		try {
+			if (collected.getAndSet(false)) {
+				queues.commit(queue);
+			}
+		}
+		catch (Exception e) {
+			// changes are stored with next commit
+			collected.set(true);
+			log.error("Failed to store queue info counters of: " + queue + "!", e);
+		}
+	}
+
+	private void write() {
+
+		List<Completion> batch = new ArrayList<>();
+
+		while (isWriting()) {
+
+			try {
+				Completion first = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+
+				// collect results for at most commit delay
+				batch.add(first);
+				long end = System.currentTimeMillis() + delayMillis;
+
+				while (batch.size() < MAX_BATCH) {
+
+					long left = end - System.currentTimeMillis();
+					Completion next = left > 0 ? pending.poll(left, TimeUnit.MILLISECONDS) : pending.poll();
+					if (next == null) {
+						break;
+					}
+
+					batch.add(next);
+				}
+
+				flush(batch);
+			}
+			catch (InterruptedException e) {
+				// closing ... store what is left
+				synchronized (this) {
+					closed = true;
+				}
+			}
+			catch (Exception e) {
+				// tasks stay running ... and are recovered as any other hanged task
+				log.error("Failed to store results of: " + batch.size() + " task(s)!", e);
+			}
+			finally {
+				space.release(batch.size());
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return true while not closed or results are left to be stored
+	 */
+	private synchronized boolean isWriting() {
+
+		return !closed || !pending.isEmpty();
+	}
+
+	/**
+	 * Stores results ... one queue info counter update for all
+	 *
+	 * @param batch results to be stored
+	 */
+	private void flush(List<Completion> batch) {
+
+		List<QueueTask> tasks = new ArrayList<>(batch.size());
+		List<TaskState> states = new ArrayList<>(batch.size());
+
+		for (Completion completion : batch) {
+			tasks.add(completion.task);
+			states.add(completion.state);
+		}
+
+		List<QueueTask> stored = queues.transition(tasks, states);
+		for (int i = 0; i < tasks.size(); i++) {
+			if (stored.get(i) == null) {
+				discarded(tasks.get(i));
+			}
+		}
+
+		log.debug("Stored results of: " + batch.size() + " task(s).");
+	}
+
+	private void store(QueueTask task, TaskState newState) {
+
+		if (queues.transition(task, newState) == null) {
+			discarded(task);
+		}
+	}
+
+	private void discarded(QueueTask task) {
+
+		log.warn("Result of task: " + task + " discarded, claim with fencing token: " + task.getFence() + " was lost!");
+	}
+
+	/**
+	 * Stores pending writes and stops writers
+	 *
+	 * @throws InterruptedException when interrupted while waiting for pending writes
+	 */
+	public void close() throws InterruptedException {
+
+		synchronized (this) {
+			closed = true;
+		}
+
+		long end = System.currentTimeMillis() + CLOSE_TIMEOUT_SECONDS * 1000L;
+		boolean stored = true;
+
+		for (Thread writer : writers) {
+
+			long left = end - System.currentTimeMillis();
+			if (left > 0) {
+				writer.join(left);
+			}
+
+			stored = stored && !writer.isAlive();
+		}
+
+		if (!stored) {
+			log.warn("Failed to store all task results in time, tasks will be recovered and executed again!");
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package com.spikeify.taskqueue.service;
 
+import com.spikeify.taskqueue.AsyncJob;
 import com.spikeify.taskqueue.Job;
 import com.spikeify.taskqueue.TaskContext;
 import com.spikeify.taskqueue.TaskResult;
@@ -11,9 +12,22 @@ import com.spikeify.taskqueue.utils.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
 /**
  * Each executor executes only one job at most
  * Create multiple executor services in order to run several jobs concurrent
+ *
+ * Executor can claim several jobs at once (batch size), claimed jobs are executed one after another
+ * before queue is asked for new jobs, or take jobs from a dispatcher shared among executors of the queue
+ *
+ * Pipelined executor claims next job while current job is executed and stores results in background
  */
 public class DefaultTaskExecutorService implements TaskExecutorService {
 
@@ -27,14 +41,76 @@ public class DefaultTaskExecutorService implements TaskExecutorService {
 	private final String queueName;
 	private final TaskQueueService queue;
 
+	private final int batchSize;
+
+	private final QueueDispatcher dispatcher;
+
+	/**
+	 * async jobs in flight (null - async jobs are executed blocking)
+	 */
+	private final AsyncJobTracker asyncJobs;
+
+	/**
+	 * background claims and result writes (null - results are stored by executing thread)
+	 */
+	private final QueuePipeline pipeline;
+
+	/**
+	 * next job claimed in background while current job is executed
+	 */
+	private CompletableFuture<QueueTask> prefetched;
+
+	/**
+	 * jobs claimed (in running state) but not yet executed
+	 */
+	private final Deque<QueueTask> claimed = new ArrayDeque<>();
+
 	private boolean running;
 
 	public DefaultTaskExecutorService(TaskQueueService queueService,
 									  String queueName) {
 
+		this(queueService, queueName, 1);
+	}
+
+	public DefaultTaskExecutorService(TaskQueueService queueService,
+									  String queueName,
+									  int claimBatchSize) {
+
+		this(queueService, queueName, claimBatchSize, null, null, null);
+	}
+
+	public DefaultTaskExecutorService(TaskQueueService queueService,
+									  String queueName,
+									  QueueDispatcher queueDispatcher) {
+
+		this(queueService, queueName, 1, queueDispatcher, null, null);
+		Assert.notNull(queueDispatcher, "Missing queue dispatcher!");
+	}
+
+	/**
+	 * @param queueService    queue service
+	 * @param queueName       name of queue
+	 * @param claimBatchSize  number of tasks claimed at once (ignored if dispatcher is given)
+	 * @param queueDispatcher dispatcher to take tasks from or null to claim tasks from queue
+	 * @param asyncJobTracker tracker of async jobs in flight or null to wait for async jobs to complete
+	 * @param queuePipeline   pipeline to claim jobs and store results in background or null to do it in executing thread
+	 */
+	public DefaultTaskExecutorService(TaskQueueService queueService,
+									  String queueName,
+									  int claimBatchSize,
+									  QueueDispatcher queueDispatcher,
+									  AsyncJobTracker asyncJobTracker,
+									  QueuePipeline queuePipeline) {
+
 		Assert.notNull(queueService, "Missing queue service!");
+		Assert.isTrue(claimBatchSize > 0, "Batch size must be >= 1!");
 
 		this.queue = queueService;
+		this.batchSize = claimBatchSize;
+		this.dispatcher = queueDispatcher;
+		this.asyncJobs = asyncJobTracker;
+		this.pipeline = queuePipeline;
 
 		if (StringUtils.isNullOrEmptyTrimmed(queueName)) {
 			this.queueName = DefaultTaskQueueService.DEFAULT_QUEUE_NAME;
@@ -53,11 +129,27 @@ public class DefaultTaskExecutorService implements TaskExecutorService {
 		do {
 			running = true;
 
+			// no task is claimed without free async slot ... claiming counts a run (slot is freed if job is not async)
+			// thread is woken up once a slot is freed, waiting for a slot does not count against task time out
+			boolean slot = false;
+			if (asyncJobs != null) {
+
+				if (!asyncJobs.tryAcquire()) {
+					break;
+				}
+
+				slot = true;
+			}
+
 			// 1. get next job to be executed (in running state)
-			QueueTask next = queue.next(queueName);
+			QueueTask next = prefetched != null ? takePrefetched() : take();
 
 			// no job found ... exit
 			if (next == null) {
+				if (slot) {
+					asyncJobs.release();
+				}
+
 				break;
 			}
 
@@ -70,30 +162,37 @@ public class DefaultTaskExecutorService implements TaskExecutorService {
 
 				Job currentJob = null;
 
+				// stale worker is interrupted if claim is lost (task claimed again by other node)
+				String taskId = next.getId();
+				int fence = next.getFence();
+				RunningTasks.started(next, context);
+				boolean async = false;
+
 				try {
+					// claim next job while this one is executed
+					prefetch(context);
+
 					// get job
 					currentJob = next.getJob();
 
-					// 2. execute job
-					TaskResult result = currentJob.execute(context);
+					// 2. execute job (async job is started and transitioned once completed)
+					if (slot && currentJob instanceof AsyncJob) {
 
-					// 3. set job to finished, interrupted or failed ...
-					switch (result.getState()) {
-						case ok:
-							queue.transition(next, TaskState.finished);
-							break;
-
-						case interrupted:
-							queue.transition(next, TaskState.interrupted);
-							break;
-
-						default:
-						case failed:
-							queue.transition(next, TaskState.failed);
-							break;
+						slot = false; // slot is handed over to async job
+						TaskResult result = start((AsyncJob) currentJob, next, context);
+						async = TaskResultState.started.equals(result.getState());
+						return result;
 					}
 
-					log.debug("Task resulted in: " + result);
+					if (slot) {
+						slot = false;
+						asyncJobs.release();
+					}
+
+					TaskResult result = currentJob.execute(context);
+
+					// 3. set job to finished, interrupted or failed ...
+					finish(next, result);
 
 					// 4. end execution
 					return result;
@@ -102,14 +201,27 @@ public class DefaultTaskExecutorService implements TaskExecutorService {
 					log.error("Failed to execute job: " + currentJob + ", queue id:" + next.getId(), e);
 
 					next = queue.transition(next, TaskState.failed);
-					if (next == null || !TaskState.failed.equals(next.getState())) {
+					if (next == null || !(TaskState.failed.equals(next.getState()) || TaskState.dead.equals(next.getState()))) {
 						log.error("Failed to transition queued job to failed state: " + next + "!", e);
 					}
 
 					return new TaskResult(TaskResultState.failed);
 				}
+				finally {
+					if (slot) {
+						asyncJobs.release();
+					}
+
+					if (!async) {
+						RunningTasks.done(taskId, fence);
+					}
+				}
 			}
 			else {
+				if (slot) {
+					asyncJobs.release();
+				}
+
 				// job already in running state (other thread took over ... let's retry)
 				retries++; // increase retry counter
 
@@ -131,9 +243,218 @@ public class DefaultTaskExecutorService implements TaskExecutorService {
 		return null;
 	}
 
+	/**
+	 * Starts async job on slot acquired before task was claimed
+	 *
+	 * @param job     async job
+	 * @param task    claimed task (in running state)
+	 * @param context job context
+	 * @return started result
+	 */
+	private TaskResult start(AsyncJob job, final QueueTask task, TaskContext context) {
+
+		CompletableFuture<TaskResult> future;
+		try {
+			future = job.executeAsync(context);
+			Assert.notNull(future, "Async job: " + job + " returned no result!");
+		}
+		catch (RuntimeException e) {
+			asyncJobs.release();
+			throw e;
+		}
+
+		asyncJobs.started(future, context);
+		final int fence = task.getFence();
+
+		// result is stored on completion thread ... not on thread completing the future (shared watchdog when canceled)
+		future.whenCompleteAsync(new BiConsumer<TaskResult, Throwable>() {
+			@Override
+			public void accept(TaskResult result, Throwable error) {
+
+				try {
+					if (error instanceof CancellationException) {
+						log.info("Async job of task: " + task.getId() + " canceled!");
+						result = TaskResult.interrupted();
+					}
+					else if (error != null) {
+						log.error("Failed to execute async job of task: " + task.getId(), error);
+						result = TaskResult.failed();
+					}
+
+					finish(task, result != null ? result : TaskResult.failed());
+				}
+				catch (Exception e) {
+					log.error("Failed to transition async job of task: " + task.getId(), e);
+				}
+				finally {
+					RunningTasks.done(task.getId(), fence);
+				}
+			}
+		}, asyncJobs.getCompleter());
+
+		log.debug("Async job of task: " + task.getId() + " started.");
+		return TaskResult.started();
+	}
+
+	/**
+	 * Transitions task according to job result
+	 *
+	 * @param task   executed task
+	 * @param result job result
+	 */
+	private void finish(QueueTask task, TaskResult result) {
+
+		TaskState newState;
+		switch (result.getState()) {
+			case ok:
+				newState = TaskState.finished;
+				break;
+
+			case interrupted:
+				newState = TaskState.interrupted;
+				break;
+
+			default:
+			case failed:
+				newState = TaskState.failed;
+				break;
+		}
+
+		log.debug("Task resulted in: " + result);
+
+		// store result in background
+		if (pipeline != null) {
+			pipeline.getWriter().write(task, newState);
+			return;
+		}
+
+		if (queue.transition(task, newState) == null) {
+			log.warn("Result of task: " + task + " discarded, claim with fencing token: " + task.getFence() + " was lost!");
+		}
+	}
+
+	/**
+	 * Claims next job in background (pipelined executor only)
+	 *
+	 * @param context execution context
+	 */
+	private void prefetch(TaskContext context) {
+
+		if (pipeline == null || !pipeline.isPrefetching() || prefetched != null || context.interrupted()) {
+			return;
+		}
+
+		prefetched = pipeline.claim(new Supplier<QueueTask>() {
+			@Override
+			public QueueTask get() {
+
+				return take();
+			}
+		});
+	}
+
+	/**
+	 * Waits for job claimed in background ... claim is renewed as job was claimed before current job was executed
+	 * (so it gets its full time out once executed)
+	 *
+	 * @return claimed job or null if queue is empty
+	 */
+	private QueueTask takePrefetched() {
+
+		QueueTask next = joinPrefetched();
+		if (next == null) {
+			return null;
+		}
+
+		QueueTask renewed = queue.renew(next);
+		if (renewed != null) {
+			return renewed;
+		}
+
+		// claim lost while waiting (timed out and claimed by other node) ... claim another job
+		return take();
+	}
+
+	/**
+	 * Waits for job claimed in background
+	 *
+	 * @return claimed job or null if queue is empty
+	 */
+	private QueueTask joinPrefetched() {
+
+		CompletableFuture<QueueTask> future = prefetched;
+		prefetched = null;
+
+		try {
+			return future.join();
+		}
+		catch (CompletionException e) {
+			log.error("Failed to claim next job!", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Takes next claimed job or claims new jobs from queue if none left
+	 *
+	 * @return job to be executed or null if queue is empty
+	 */
+	private QueueTask take() {
+
+		if (dispatcher != null) {
+			return dispatcher.next();
+		}
+
+		if (batchSize == 1) {
+			return queue.next(queueName);
+		}
+
+		while (true) {
+
+			if (claimed.isEmpty()) {
+				claimed.addAll(queue.next(queueName, batchSize));
+			}
+
+			QueueTask task = claimed.poll();
+			if (task == null) {
+				return null;
+			}
+
+			// tasks of batch are executed one after another ... claim is renewed so each gets its full time out
+			QueueTask renewed = queue.renew(task);
+			if (renewed != null) {
+				return renewed;
+			}
+
+			// claim lost while waiting (purged) ... take next one
+		}
+	}
+
 	@Override
 	public boolean isRunning() {
 
 		return running;
 	}
+
+	@Override
+	public void release() {
+
+		// job claimed in background is released too
+		if (prefetched != null) {
+
+			QueueTask next = joinPrefetched();
+			if (next != null) {
+				claimed.push(next);
+			}
+		}
+
+		QueueTask task;
+		while ((task = claimed.poll()) != null) {
+
+			// put into interrupted state ... so task can be picked up again
+			if (queue.transition(task, TaskState.interrupted) == null) {
+				log.warn("Failed to release claimed job: " + task + "!");
+			}
+		}
+	}
 }
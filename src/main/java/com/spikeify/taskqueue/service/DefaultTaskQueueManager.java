@@ -8,6 +8,7 @@ import com.spikeify.taskqueue.entities.QueueInfo;
 import com.spikeify.taskqueue.entities.QueueInfoUpdater;
 import com.spikeify.taskqueue.entities.QueueSettings;
 import com.spikeify.taskqueue.entities.TaskState;
+import com.spikeify.taskqueue.entities.WorkerNode;
 import com.spikeify.taskqueue.utils.Assert;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,6 +17,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -28,6 +30,16 @@ public class DefaultTaskQueueManager implements TaskQueueManager {
 
 	public static final Logger log = LoggerFactory.getLogger(DefaultTaskExecutorService.class.getSimpleName());
 
+	/**
+	 * idle schedulers of watched queues wait up to given number of sleep intervals (tasks not signaled are still picked up)
+	 */
+	private static final int WATCHED_SLEEP_FACTOR = 6;
+
+	/**
+	 * number of tasks prefetched for queues running on virtual threads (if prefetch size is not given)
+	 */
+	private static final int VIRTUAL_PREFETCH_SIZE = 100;
+
 	private final Spikeify sfy;
 	private final TaskQueueService queues;
 
@@ -36,6 +48,57 @@ public class DefaultTaskQueueManager implements TaskQueueManager {
 	 */
 	private final Map<String, ScheduledExecutorService> threadPool = new HashMap<>();
 
+	/**
+	 * Prefetching dispatchers of started queues (if prefetching is enabled)
+	 */
+	private final Map<String, QueueDispatcher> dispatchers = new HashMap<>();
+
+	/**
+	 * Async jobs in flight of started queues (if async jobs are enabled)
+	 */
+	private final Map<String, AsyncJobTracker> asyncJobs = new HashMap<>();
+
+	/**
+	 * Background claims and result writes of started queues (if pipelined)
+	 */
+	private final Map<String, QueuePipeline> pipelines = new HashMap<>();
+
+	/**
+	 * Poll interval and statistics of started queues
+	 */
+	private final Map<String, QueuePoller> pollers = new HashMap<>();
+
+	/**
+	 * Schedulers of started queues (reported with node heartbeats)
+	 */
+	private final Map<String, QueueScaler> scalers = new HashMap<>();
+
+	/**
+	 * Number of managers (not shut down) sharing watchdog, heartbeat and node registry of this JVM
+	 */
+	private static int managers;
+
+	/**
+	 * Single watchdog interrupting/killing timed out tasks of all queues (of all managers)
+	 */
+	private static ScheduledExecutorService sharedWatchdog;
+
+	/**
+	 * Renews lease of this node and recovers tasks of dead nodes (single heartbeat per JVM)
+	 */
+	private static ScheduledExecutorService sharedHeartbeat;
+
+	/**
+	 * This node with its queues and running tasks (single registry per JVM)
+	 */
+	private static NodeRegistry sharedNode;
+
+	private final ScheduledExecutorService watchdog;
+
+	private final NodeRegistry node;
+
+	private boolean shutdown;
+
 	public DefaultTaskQueueManager(Spikeify spikeify,
 								   TaskQueueService queueService) {
 
@@ -43,6 +106,69 @@ public class DefaultTaskQueueManager implements TaskQueueManager {
 		sfy = spikeify;
 
 		queues = queueService;
+
+		synchronized (DefaultTaskQueueManager.class) {
+
+			// first manager of JVM starts watchdog and heartbeat ... others share them
+			if (managers == 0) {
+
+				ScheduledThreadPoolExecutor timeouts = new ScheduledThreadPoolExecutor(1, new TaskThreadFactory("task-queue-watchdog", true, false));
+
+				// time outs are canceled for most tasks ... don't keep them around
+				timeouts.setRemoveOnCancelPolicy(true);
+				sharedWatchdog = timeouts;
+
+				// single write per heartbeat for all running tasks of this node
+				sharedHeartbeat = Executors.newSingleThreadScheduledExecutor(new TaskThreadFactory("task-queue-heartbeat", true, false));
+				sharedNode = new NodeRegistry(sfy, queues);
+				sharedHeartbeat.scheduleWithFixedDelay(sharedNode, 0, NodeRegistry.HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+			}
+
+			managers++;
+
+			watchdog = sharedWatchdog;
+			node = sharedNode;
+		}
+	}
+
+	@Override
+	public void shutdown() throws InterruptedException {
+
+		synchronized (this) {
+			if (shutdown) {
+				return;
+			}
+
+			shutdown = true;
+		}
+
+		// stop queues started by this manager on this JVM (queues stay started for other nodes)
+		for (String name : new ArrayList<>(threadPool.keySet())) {
+
+			QueueInfo info = info(name);
+			stopRunningThreads(name, info != null ? info.getSettings() : new QueueSettings());
+		}
+
+		// pending queue info counter changes are stored
+		queues.close();
+
+		synchronized (DefaultTaskQueueManager.class) {
+
+			managers--;
+
+			// last manager of JVM stops watchdog and heartbeat ... node lease expires
+			if (managers == 0) {
+
+				sharedHeartbeat.shutdownNow();
+				sharedWatchdog.shutdownNow();
+
+				sharedHeartbeat = null;
+				sharedWatchdog = null;
+				sharedNode = null;
+			}
+		}
+
+		log.info("Queue manager shut down.");
 	}
 
 	@Override
@@ -86,6 +212,8 @@ public class DefaultTaskQueueManager implements TaskQueueManager {
 			}
 		});
 
+		QueueInfoCounter.changed(queue.getName());
+
 		log.info("Queue: " + queueName + ", registered!");
 		return queue;
 	}
@@ -137,9 +265,12 @@ public class DefaultTaskQueueManager implements TaskQueueManager {
 				queues.purge(TaskState.failed, 0, queueName);
 				queues.purge(TaskState.finished, 0, queueName);
 				queues.purge(TaskState.interrupted, 0, queueName);
+				queues.purge(TaskState.dead, 0, queueName);
 
 				log.info("Queue: " + queueName + ", unregistered!");
 				sfy.delete(found).now();
+
+				QueueInfoCounter.changed(found.getName());
 			}
 			catch (InterruptedException e) {
 				log.error("Failed to stop queue: " + queueName + ", can't unregister!", e);
@@ -164,24 +295,88 @@ public class DefaultTaskQueueManager implements TaskQueueManager {
 			// stop thread running if any ...
 			stopRunningThreads(name, settings);
 
+			// platform or virtual threads (if desired and supported)
+			TaskThreadFactory threadFactory = new TaskThreadFactory(name, false, settings.getVirtualThreads() > 0);
+			int threads = threadFactory.isVirtual() ? settings.getVirtualThreads() : settings.getMaxThreads();
+
+			// single dispatcher claiming tasks for all threads of queue
+			// virtual threads always take tasks from dispatcher ... so thousands of threads don't query the database on their own
+			int prefetch = settings.getPrefetchSize();
+			if (prefetch == 0 && threadFactory.isVirtual()) {
+				prefetch = Math.min(threads, VIRTUAL_PREFETCH_SIZE);
+			}
+
+			if (prefetch > 0) {
+				dispatchers.put(name, new QueueDispatcher(queues, name, settings, prefetch));
+			}
+
+			// results stored (group commit) and next tasks claimed in background
+			if (settings.isPipelined() || settings.getCommitDelayMillis() > 0) {
+				pipelines.put(name, new QueuePipeline(queues, name, settings, threads));
+			}
+
+			// async jobs in flight shared by all threads of queue
+			if (settings.getMaxAsyncJobs() > 0) {
+				asyncJobs.put(name, new AsyncJobTracker(name,
+														settings.getMaxAsyncJobs(),
+														watchdog,
+														settings.getTaskTimeoutSeconds(),
+														settings.getTaskInterruptTimeoutSeconds()));
+			}
+
 			// will start x-threads per queue and monitor them (every 10 seconds)
-			ScheduledThreadPoolExecutor executorService = new ScheduledThreadPoolExecutor(settings.getMaxThreads());
+			// one thread for purge and watch tasks ... scaler adds a thread per scheduler (schedulers execute tasks and wait for new ones on their own threads)
+			ScheduledThreadPoolExecutor executorService = new ScheduledThreadPoolExecutor(1, threadFactory);
 
 			// queue execution (create global context to allow graceful thread interruption)
 			TaskContext context = new TaskThreadPoolContext(executorService);
 
-			// create maxThread schedulers running tasks per machine ...
-			for (int i = 0; i < settings.getMaxThreads(); i++) {
-				// each thread must have it's own executor service
-				TaskExecutorService executor = getExecutor(name);
-
-				executorService.scheduleAtFixedRate(new QueueScheduler(executor,
-					settings.getTaskTimeoutSeconds(),
-					settings.getTaskInterruptTimeoutSeconds(),
-					context),
-													settings.getQueueMaxSleepTimeSeconds() + (100 * i), // add some delay so threads start with an offset
-													settings.getQueueMaxSleepTimeSeconds() * 1000,
-													TimeUnit.MILLISECONDS);
+			// idle schedulers wait for new tasks to be signaled ...
+			// when queue version is watched tasks added on other machines are signaled too so schedulers can wait longer
+			// poll interval adapts between min and max sleep time
+			long sleepMillis = settings.getQueueMaxSleepTimeSeconds() * 1000;
+			long waitMillis = settings.getQueueWatchTimeMillis() > 0 ? sleepMillis * WATCHED_SLEEP_FACTOR : sleepMillis;
+			final QueuePoller poller = new QueuePoller(Math.min(settings.getQueueMinSleepTimeMillis(), waitMillis), waitMillis);
+
+			// create min - max schedulers running tasks per machine ...
+			QueueScaler scaler = new QueueScaler(name,
+												 this,
+												 executorService,
+												 new QueueScaler.SchedulerFactory() {
+													 @Override
+													 public QueueScheduler create() {
+
+														 // each thread must have it's own executor service
+														 TaskExecutorService executor = getExecutor(name, settings);
+
+														 return new QueueScheduler(executor,
+																				   watchdog,
+																				   settings.getTaskTimeoutSeconds(),
+																				   settings.getTaskInterruptTimeoutSeconds(),
+																				   context,
+																				   QueueSignal.get(name),
+																				   poller);
+													 }
+												 },
+												 settings.getMinThreads(threads),
+												 threads,
+												 settings.getQueueMaxSleepTimeSeconds() * 1000);
+			scaler.start();
+			scalers.put(name, scaler);
+			node.started(name, scaler);
+
+			// check backlog and add or remove threads (and replace threads blocked by killed tasks)
+			executorService.scheduleAtFixedRate(scaler,
+												settings.getQueueMaxSleepTimeSeconds(),
+												settings.getQueueMaxSleepTimeSeconds(),
+												TimeUnit.SECONDS);
+
+			// check for tasks added on other machines
+			if (settings.getQueueWatchTimeMillis() > 0) {
+				executorService.scheduleWithFixedDelay(new QueueWatcher(this, name),
+													   settings.getQueueWatchTimeMillis(),
+													   settings.getQueueWatchTimeMillis(),
+													   TimeUnit.MILLISECONDS);
 			}
 
 			// add purge task to clean up failed and finished tasks
@@ -193,6 +388,7 @@ public class DefaultTaskQueueManager implements TaskQueueManager {
 
 			// store execution into thread pool by queue name
 			threadPool.put(name, executorService);
+			pollers.put(name, poller);
 			log.info("Started queue: " + name);
 		}
 	}
@@ -203,6 +399,15 @@ public class DefaultTaskQueueManager implements TaskQueueManager {
 		return new DefaultTaskExecutorService(queues, queueName);
 	}
 
+	@Override
+	public TaskExecutorService getExecutor(String queueName, QueueSettings settings) {
+
+		Assert.notNull(settings, "Missing queue settings!");
+
+		QueueDispatcher dispatcher = dispatchers.get(queueName);
+		return new DefaultTaskExecutorService(queues, queueName, settings.getBatchSize(), dispatcher, asyncJobs.get(queueName), pipelines.get(queueName));
+	}
+
 	@Override
 	public void stop(String... queueNames) throws InterruptedException {
 
@@ -218,6 +423,18 @@ public class DefaultTaskQueueManager implements TaskQueueManager {
 		}
 	}
 
+	@Override
+	public QueuePoller getPoller(String queueName) {
+
+		return pollers.get(queueName);
+	}
+
+	@Override
+	public List<WorkerNode> nodes() {
+
+		return node.nodes();
+	}
+
 	@Override
 	public boolean isRunning(String queueName) {
 
@@ -348,6 +565,9 @@ public class DefaultTaskQueueManager implements TaskQueueManager {
 			// interrupt all running schedules if any
 			running.shutdown();
 
+			// wake up schedulers waiting for new tasks ... so they can stop
+			QueueSignal.get(queueName).signalAll();
+
 			if (!running.awaitTermination(settings.getTaskInterruptTimeoutSeconds(), TimeUnit.SECONDS)) {
 				log.warn("Executor did not terminate in the specified time.");
 
@@ -357,5 +577,20 @@ public class DefaultTaskQueueManager implements TaskQueueManager {
 		}
 
 		threadPool.remove(queueName);
+		pollers.remove(queueName);
+		asyncJobs.remove(queueName); // jobs in flight complete on their own
+		node.stopped(scalers.remove(queueName));
+
+		// return prefetched tasks to queue
+		QueueDispatcher dispatcher = dispatchers.remove(queueName);
+		if (dispatcher != null) {
+			dispatcher.release();
+		}
+
+		// store pending results
+		QueuePipeline pipeline = pipelines.remove(queueName);
+		if (pipeline != null) {
+			pipeline.close();
+		}
 	}
 }
@@ -1,6 +1,7 @@
 package com.spikeify.taskqueue.service;
 
 import com.aerospike.client.AerospikeException;
+import com.aerospike.client.ResultCode;
 import com.spikeify.ResultSet;
 import com.spikeify.Spikeify;
 import com.spikeify.SpikeifyService;
@@ -8,7 +9,10 @@ import com.spikeify.Work;
 import com.spikeify.taskqueue.Job;
 import com.spikeify.taskqueue.TaskQueueError;
 import com.spikeify.taskqueue.entities.QueueInfo;
+import com.spikeify.taskqueue.entities.QueueSettings;
 import com.spikeify.taskqueue.entities.QueueTask;
+import com.spikeify.taskqueue.entities.QueueTaskKey;
+import com.spikeify.taskqueue.entities.TaskPriority;
 import com.spikeify.taskqueue.entities.TaskState;
 import com.spikeify.taskqueue.entities.TaskStatistics;
 import com.spikeify.taskqueue.utils.Assert;
@@ -16,6 +20,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DefaultTaskQueueService implements TaskQueueService {
 
@@ -36,13 +41,103 @@ public class DefaultTaskQueueService implements TaskQueueService {
 	 */
 	private static final int MAX_TOP_ITEMS = 5;
 
+	/**
+	 * max number of consecutive empty time buckets read at once
+	 */
+	private static final int MAX_EMPTY_BUCKETS = 6;
+
+	/**
+	 * number of most recent time buckets cursor is never moved past (tasks from machines with slightly skewed clocks)
+	 */
+	private static final int SKEW_BUCKETS = 3;
+
+	/**
+	 * time in milliseconds open tasks read before waiting for start tokens are still claimed from (read again after longer wait)
+	 */
+	private static final long STALE_OPEN_MILLIS = 100L;
+
+	/**
+	 * time in milliseconds deduplication key is considered reserved by other thread while its task is not stored jet
+	 */
+	private static final long PENDING_KEY_MILLIS = 1000L;
+
+	/**
+	 * number of seconds running task permit is leased longer than task time out
+	 */
+	private static final int PERMIT_SLACK_SECONDS = 10;
+
+	/**
+	 * min time in milliseconds between two promotions of delayed tasks (per queue)
+	 */
+	private static final long PROMOTE_INTERVAL_MILLIS = 1000L;
+
+	/**
+	 * number of delay time buckets read when position of delayed tasks is not known (queues created before delayed tasks were supported)
+	 */
+	private static final int DELAY_LOOKBACK_BUCKETS = 60;
+
+	/**
+	 * number of seconds running task is given in addition to task time out ... so purge and time-out in scheduler can't clash
+	 */
+	static final int DEADLINE_SLACK_SECONDS = 10;
+
 	private final Spikeify sfy;
 
+	/**
+	 * position of oldest open tasks per queue and priority
+	 */
+	private final Map<String, QueueCursor> cursors = new ConcurrentHashMap<>();
+
+	/**
+	 * oldest delay time bucket that might hold delayed tasks per queue
+	 */
+	private final Map<String, Long> delayCursors = new ConcurrentHashMap<>();
+
+	/**
+	 * time of last promotion of delayed tasks per queue
+	 */
+	private final Map<String, Long> promoted = new ConcurrentHashMap<>();
+
+	/**
+	 * start rate limiters of rate limited queues
+	 */
+	private final Map<String, QueueRateLimiter> limiters = new ConcurrentHashMap<>();
+
+	/**
+	 * running task permits of queues with limited number of running tasks
+	 */
+	private final Map<String, QueuePermitLimiter> permits = new ConcurrentHashMap<>();
+
+	/**
+	 * queue settings (cached)
+	 */
+	private final QueueSettingsCache settings;
+
+	/**
+	 * queue info task counting
+	 */
+	private final QueueInfoCounter counter;
+
 	public DefaultTaskQueueService(Spikeify spikeify) {
 
+		this(spikeify, 0);
+	}
+
+	/**
+	 * @param spikeify            database connection
+	 * @param counterFlushMillis  0 - queue info counters are updated immediately,
+	 *                            &gt; 0 - counter changes are collected and stored in background every given number of milliseconds
+	 *                            (counters in queue info are eventually consistent, lagging behind for at most given time)
+	 */
+	public DefaultTaskQueueService(Spikeify spikeify, long counterFlushMillis) {
+
 		Assert.notNull(spikeify, "Missing spikeify!");
+		Assert.isTrue(counterFlushMillis >= 0, "Counter flush interval must be >= 0!");
 		sfy = spikeify;
 
+		counter = new QueueInfoCounter(sfy, counterFlushMillis);
+		settings = new QueueSettingsCache(sfy);
+
 		// create indexes if not already present ...
 		SpikeifyService.register(QueueTask.class);
 	}
@@ -50,17 +145,147 @@ public class DefaultTaskQueueService implements TaskQueueService {
 	@Override
 	public QueueTask add(Job job, String queueName) {
 
+		return add(job, queueName, TaskPriority.normal);
+	}
+
+	@Override
+	public QueueTask add(Job job, String queueName, TaskPriority priority) {
+
+		return add(job, queueName, priority, 0);
+	}
+
+	@Override
+	public QueueTask add(Job job, String queueName, long runAt) {
+
+		return add(job, queueName, TaskPriority.normal, runAt);
+	}
+
+	@Override
+	public QueueTask add(Job job, String queueName, TaskPriority priority, long runAt) {
+
+		return add(job, queueName, priority, runAt, null);
+	}
+
+	@Override
+	public QueueTask add(Job job, String queueName, String dedupKey) {
+
+		Assert.notNullOrEmpty(dedupKey, "Missing deduplication key!");
+		return add(job, queueName, TaskPriority.normal, 0, dedupKey);
+	}
+
+	@Override
+	public QueueTask add(Job job, String queueName, TaskPriority priority, long runAt, String dedupKey) {
+
 		Assert.notNull(job, "Missing job!");
 		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+		Assert.notNull(priority, "Missing task priority!");
+
+		QueueTask task = new QueueTask(job, queueName, priority, runAt);
+		task.setMaxRetries(settings.get(queueName).getMaxRetries());
+
+		if (dedupKey != null) {
+
+			task.assignId();
+
+			QueueTask existing = reserve(task, dedupKey);
+			if (existing != null) {
+				log.debug("[" + queueName + "] job with key: " + dedupKey + " already present: " + existing);
+				return existing;
+			}
+		}
 
-		QueueTask task = new QueueTask(job, queueName);
 		sfy.create(task).now();
-		setQueueInfoCount(queueName, null, TaskState.queued);
+		task.setGeneration(1); // newly created record
+
+		counter.collect(queueName, null, TaskState.queued, 1);
+		if (task.isDelayed()) {
+			counter.collectDelayed(queueName, TaskState.queued, 1);
+		}
+
+		counter.commit(queueName);
+
+		// wake up sleeping threads of queue on this machine
+		if (!task.isDelayed()) {
+			QueueSignal.get(queueName).signal();
+		}
 
 		// create id ... add job ...
 		return task;
 	}
 
+	/**
+	 * Reserves deduplication key for given task ... with a create only write (or conditional write if key is taken over)
+	 *
+	 * @param task     to be added
+	 * @param dedupKey deduplication key
+	 * @return null if key was reserved and task can be added, already present task with same key otherwise
+	 */
+	private QueueTask reserve(QueueTask task, String dedupKey) {
+
+		long window = settings.get(task.getQueue()).getDedupWindowSeconds() * 1000L;
+		long expires = System.currentTimeMillis() + window;
+
+		for (int i = 0; i < CHOOSE_NEXT_TASK_RETRIES; i++) {
+
+			try {
+				sfy.create(new QueueTaskKey(task.getQueue(), dedupKey, task.getId(), expires)).now();
+				return null;
+			}
+			catch (AerospikeException e) {
+
+				if (e.getResultCode() != ResultCode.KEY_EXISTS_ERROR) {
+					throw e;
+				}
+			}
+
+			// key is taken ... check if task holding the key is still queued or running
+			QueueTaskKey key = sfy.get(QueueTaskKey.class).key(QueueTaskKey.getKey(task.getQueue(), dedupKey)).now();
+			if (key == null) {
+				continue; // expired in the mean time ... try again
+			}
+
+			QueueTask existing = sfy.get(QueueTask.class).key(key.getTaskId()).now();
+			if (existing != null &&
+				(!existing.isLocked() || TaskState.running.equals(existing.getState()))) {
+				return existing;
+			}
+
+			// key was just reserved by other thread ... task might not be stored jet
+			if (existing == null && key.getExpires() - window > System.currentTimeMillis() - PENDING_KEY_MILLIS) {
+
+				try {
+					Thread.sleep(PENDING_KEY_MILLIS / CHOOSE_NEXT_TASK_RETRIES);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new TaskQueueError("Interrupted while adding job with key: " + dedupKey + "!", e);
+				}
+
+				continue;
+			}
+
+			// task holding the key is done ... take over key
+			key.setTask(task.getId(), expires);
+
+			try {
+				sfy.update(key).now();
+				return null;
+			}
+			catch (ConcurrentModificationException e) {
+				log.debug("Could not take over key: " + dedupKey + ", thread collision!");
+			}
+			catch (AerospikeException e) {
+
+				if (e.getResultCode() != ResultCode.GENERATION_ERROR &&
+					e.getResultCode() != ResultCode.KEY_NOT_FOUND_ERROR) {
+					throw e;
+				}
+			}
+		}
+
+		throw new TaskQueueError("Could not add job with key: " + dedupKey + ", to many collisions!");
+	}
+
 	/**
 	 * Returns next open and put's it into running state
 	 * ... might be that in the mean time some other thread will try lock this job
@@ -74,27 +299,41 @@ public class DefaultTaskQueueService implements TaskQueueService {
 
 		Assert.notNullOrEmpty(queueName, "Missing queue name!");
 
-		// note: query can return task that are not open anymore ... so choosing random task it ensures that tasks are distributed more or less evenly among workers
-		ResultSet<QueueTask> openTasks = sfy.query(QueueTask.class)
-											.filter("lockFilter", QueueTask.getLockedFilter(queueName, false))
-											.now();
-
-		// Choose random job ... not the first one
-		List<QueueTask> list = openTasks.toList();
+		// nothing to claim ... no start tokens are taken
+		List<QueueTask> list = listOpen(queueName);
 		if (list.size() == 0) {
 			return null;
 		}
 
-		// sort by updateTime ... the older task are on top ...
-		// this tries to make sure earlier tasks are executed before later tasks inserted into queue but it is not 100%
-		// so no one should rely on this fact
-		Collections.sort(list, new Comparator<QueueTask>() {
-			@Override
-			public int compare(QueueTask o1, QueueTask o2) {
+		// wait for start permission if queue is rate limited
+		long start = System.currentTimeMillis();
+		int tokens = acquire(queueName, 1);
+		if (tokens == 0) {
+			return null;
+		}
 
-				return o1.getUpdateTime().compareTo(o2.getUpdateTime());
-			}
-		});
+		list = reread(queueName, list, start);
+
+		QueueTask task = list.size() > 0 ? claim(queueName, list) : null;
+
+		if (task == null) {
+			release(queueName, tokens);
+		}
+
+		return task;
+	}
+
+	private QueueTask claim(String queueName, List<QueueTask> list) {
+
+		// note: query can return task that are not open anymore ... so choosing random task it ensures that tasks are distributed more or less evenly among workers
+		// Choose random job ... not the first one
+		sort(list);
+
+		// refuse to claim if all running task permits are taken
+		List<String> leases = leasePermits(queueName, 1);
+		if (leases != null && leases.size() == 0) {
+			return null;
+		}
 
 		int size = Math.min(MAX_TOP_ITEMS, list.size()); // 10 or less random from list
 		QueueTask proposed = null;
@@ -107,130 +346,947 @@ public class DefaultTaskQueueService implements TaskQueueService {
 			proposed = (transition(list.get(idx), TaskState.running));
 
 			if (proposed != null && TaskState.running.equals(proposed.getState())) {
+				assignPermits(queueName, Collections.singletonList(proposed), leases);
 				return proposed;
 			}
 
 			size = Math.min(10 * i, list.size()); // make random choice wider
 		}
 
+		assignPermits(queueName, new ArrayList<QueueTask>(), leases);
+
 		// last resort ... (don't return null as null is the signal that there are no new tasks)
 		return proposed;
 	}
 
+	/**
+	 * Claims up to max tasks from oldest open tasks ... tasks already taken by other threads are skipped
+	 * queue info counters are updated once for all claimed tasks
+	 *
+	 * @param queueName name of queue
+	 * @param maxTasks  max number of jobs to be returned
+	 * @return list of claimed tasks in running state or empty list if none found
+	 */
 	@Override
-	public List<QueueTask> list(TaskState state, String queueName) {
+	public List<QueueTask> next(String queueName, int maxTasks) {
 
-		Assert.notNull(state, "Missing job state!");
 		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+		Assert.isTrue(maxTasks > 0, "Number of tasks must be >= 1!");
 
-		ResultSet<QueueTask> query = sfy.query(QueueTask.class)
-										.filter("stateFilter", QueueTask.getStateFilter(queueName, state))
-										.now();
-		return query.toList();
+		// nothing to claim ... no start tokens are taken
+		List<QueueTask> list = listOpen(queueName);
+		if (list.size() == 0) {
+			return new ArrayList<>();
+		}
+
+		// wait for start permission if queue is rate limited ... claim only as many tasks as permitted
+		long start = System.currentTimeMillis();
+		int tokens = acquire(queueName, Math.min(maxTasks, list.size()));
+		if (tokens == 0) {
+			return new ArrayList<>();
+		}
+
+		list = reread(queueName, list, start);
+
+		List<QueueTask> claimed = list.size() > 0 ? claim(queueName, list, tokens) : new ArrayList<QueueTask>();
+		release(queueName, tokens - claimed.size());
+
+		return claimed;
 	}
 
-	@Override
-	public QueueTask transition(QueueTask task, TaskState newState) {
+	private List<QueueTask> claim(String queueName, List<QueueTask> list, int maxTasks) {
 
-		Assert.notNull(task, "Missing job!");
-		Assert.notNull(newState, "Missing state!");
+		List<QueueTask> claimed = new ArrayList<>();
 
-		try {
-			// Transition state task
-			final String taskId = task.getId();
-			final long updateTime = task.getUpdateTime();
+		sort(list);
 
-			QueueTask updated = sfy.transact(1, new Work<QueueTask>() {
-				@Override
-				public QueueTask run() {
+		// claim only as many tasks as running task permits are available
+		List<String> leases = leasePermits(queueName, Math.min(maxTasks, list.size()));
+		if (leases != null) {
 
-					// get latest version
-					QueueTask original = sfy.get(QueueTask.class).key(taskId).now();
+			if (leases.size() == 0) {
+				return claimed;
+			}
 
-					if (original == null) {
-						return null;
-					}
+			maxTasks = leases.size();
+		}
 
-					// will throw exception in case transition is not possible (we don't have the latest version from database)
-					if (!original.getUpdateTime().equals(updateTime)) {
-						throw new TaskQueueError("Thread collision (diff in update time), some other thread already modified task!");
-					}
+		// start with random one of the top items ... so concurrent workers don't collide on same tasks all the time
+		int offset = new Random().nextInt(Math.min(MAX_TOP_ITEMS, list.size()));
+		int collisions = 0;
 
-					String lock = UUID.randomUUID().toString();
-					original.setState(newState, lock);
+		Map<TaskState, Integer> counts = new HashMap<>();
 
-					// update state ...
-					sfy.update(original).now();
+		for (int i = 0; i < list.size() && claimed.size() < maxTasks && collisions < CHOOSE_NEXT_TASK_RETRIES; i++) {
 
-					// realod
-					QueueTask updatedTask = sfy.get(QueueTask.class).key(taskId).now();
-					if (lock.equals(updatedTask.getLock())) {
-						return updatedTask;
-					}
+			QueueTask task = list.get((offset + i) % list.size());
+			QueueTask running = change(task, TaskState.running);
 
-					throw new TaskQueueError("Thread collision (diff in lock), some other thread already modified task!");
-				}
-			});
+			if (running != null && TaskState.running.equals(running.getState())) {
+				claimed.add(running);
 
-			// change queue info count
-			if (updated != null) {
-				setQueueInfoCount(updated.getQueue(), task.getState(), newState);
+				Integer count = counts.get(task.getState());
+				counts.put(task.getState(), count == null ? 1 : count + 1);
 			}
+			else {
+				collisions++;
+			}
+		}
 
-			return updated;
+		// change queue info count
+		for (TaskState state : counts.keySet()) {
+			setQueueInfoCount(queueName, state, TaskState.running, counts.get(state));
 		}
-		catch (ConcurrentModificationException | AerospikeException e) {
-			// job modified by other thread ... transition failed
-			log.debug("Could not transition job: " + task + " to: " + newState + ", thread collision!");
-			return null;
+
+		assignPermits(queueName, claimed, leases);
+		return claimed;
+	}
+
+	/**
+	 * Open tasks read before waiting for start tokens might be taken by other machines in the mean time ... read again after longer wait
+	 *
+	 * @param queueName name of queue
+	 * @param list      open tasks read before waiting
+	 * @param start     time waiting for start tokens started
+	 * @return open tasks to claim from
+	 */
+	private List<QueueTask> reread(String queueName, List<QueueTask> list, long start) {
+
+		if (System.currentTimeMillis() - start < STALE_OPEN_MILLIS) {
+			return list;
 		}
-		catch (TaskQueueError e) {
 
-			log.error("Transition failed, thread collision.", e);
+		return listOpen(queueName);
+	}
+
+	/**
+	 * Takes start tokens of rate limited queue ... waits until at least one token is available
+	 *
+	 * @param queueName name of queue
+	 * @param max       max number of tokens to take
+	 * @return number of tokens taken (max if queue is not rate limited), 0 if interrupted while waiting
+	 */
+	private int acquire(String queueName, int max) {
+
+		double rate = settings.get(queueName).getMaxStartsPerSecond();
+		if (rate <= 0) {
+			return max;
+		}
+
+		try {
+			return getLimiter(queueName).acquire(max, rate);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns unused start tokens of rate limited queue
+	 *
+	 * @param queueName name of queue
+	 * @param count     number of unused tokens
+	 */
+	private void release(String queueName, int count) {
+
+		QueueRateLimiter limiter = limiters.get(queueName);
+		if (limiter != null) {
+			limiter.release(count);
+		}
+	}
+
+	/**
+	 * Leases running task permits of queue with limited number of running tasks
+	 *
+	 * @param queueName name of queue
+	 * @param max       max number of permits
+	 * @return list of leases (empty if all permits are taken) or null if number of running tasks is not limited
+	 */
+	private List<String> leasePermits(String queueName, int max) {
+
+		QueueSettings queueSettings = settings.get(queueName);
+		if (queueSettings.getMaxRunning() <= 0) {
 			return null;
 		}
+
+		return getPermits(queueName).acquire(max, queueSettings.getMaxRunning(), getLeaseMillis(queueSettings));
 	}
 
-	private void setQueueInfoCount(String queue, TaskState oldState, TaskState newState) {
+	/**
+	 * Lease expires when task is timed out (and purger can put it into failed state)
+	 *
+	 * @param queueSettings settings of queue
+	 * @return time in milliseconds running task permit is leased for
+	 */
+	private static long getLeaseMillis(QueueSettings queueSettings) {
+
+		return (queueSettings.getTaskTimeoutSeconds() + queueSettings.getTaskInterruptTimeoutSeconds() + PERMIT_SLACK_SECONDS) * 1000L;
+	}
+
+	/**
+	 * Assigns leased permits to claimed tasks ... not used permits are released
+	 *
+	 * @param queueName name of queue
+	 * @param claimed   claimed tasks
+	 * @param leases    leased permits (null if number of running tasks is not limited)
+	 */
+	private void assignPermits(String queueName, List<QueueTask> claimed, List<String> leases) {
 
-		QueueInfo exists = sfy.get(QueueInfo.class).key(queue).now();
-		if (exists == null) {
+		if (leases == null) {
 			return;
 		}
 
-		try {
+		QueuePermitLimiter limiter = getPermits(queueName);
 
-			// atomic counting of tasks in queue position
-			if (oldState != null) {
-				sfy.command(QueueInfo.class).key(queue).add(oldState.name(), -1).now();
-			}
+		for (int i = 0; i < claimed.size(); i++) {
+			limiter.assign(claimed.get(i).getId(), leases.get(i));
+		}
 
-			if (newState != null) {
-				sfy.command(QueueInfo.class).key(queue).add(newState.name(), 1).now();
-			}
+		limiter.releaseLeases(leases.subList(claimed.size(), leases.size()));
+	}
 
-			// total count statistics
-			if (TaskState.queued.equals(newState)) {
-				sfy.command(QueueInfo.class).key(queue).add("totalTasks", 1).now();
-			}
+	private QueuePermitLimiter getPermits(String queueName) {
 
-			if (TaskState.finished.equals(newState)) {
-				sfy.command(QueueInfo.class).key(queue).add("totalFinished", 1).now();
-			}
+		QueuePermitLimiter limiter = permits.get(queueName);
+		if (limiter == null) {
+			permits.putIfAbsent(queueName, new QueuePermitLimiter(sfy, queueName, counter));
+			limiter = permits.get(queueName);
+		}
 
-			if (TaskState.failed.equals(newState)) {
-				sfy.command(QueueInfo.class).key(queue).add("totalFailed", 1).now();
-			}
+		return limiter;
+	}
 
-			if (TaskState.failed.equals(oldState) &&
-				TaskState.running.equals(newState)) {
-				sfy.command(QueueInfo.class).key(queue).add("totalRetries", 1).now();
-			}
+	private QueueRateLimiter getLimiter(String queueName) {
+
+		QueueRateLimiter limiter = limiters.get(queueName);
+		if (limiter == null) {
+			limiters.putIfAbsent(queueName, new QueueRateLimiter(sfy, queueName));
+			limiter = limiters.get(queueName);
 		}
-		catch (Exception e) {
-			// exception here should not stop working the whole queue
-			log.error("Failed to count tasks!", e);
+
+		return limiter;
+	}
+
+	/**
+	 * sort by updateTime ... the older task are on top ...
+	 * this tries to make sure earlier tasks are executed before later tasks inserted into queue but it is not 100%
+	 * so no one should rely on this fact
+	 *
+	 * @param list of tasks to be sorted
+	 */
+	private static void sort(List<QueueTask> list) {
+
+		Collections.sort(list, new Comparator<QueueTask>() {
+			@Override
+			public int compare(QueueTask o1, QueueTask o2) {
+
+				return o1.getUpdateTime().compareTo(o2.getUpdateTime());
+			}
+		});
+	}
+
+	/**
+	 * Reads oldest open tasks of highest priority with open tasks
+	 * lower priority tasks waiting longer than aging time are read first (so they don't starve)
+	 *
+	 * @param queueName name of queue
+	 * @return list of oldest open tasks of single priority or empty list if none found
+	 */
+	private List<QueueTask> listOpen(String queueName) {
+
+		long now = System.currentTimeMillis();
+
+		// delayed tasks due to run become open tasks
+		promote(queueName, now);
+
+		// queue version and signal are taken before tasks are read ... so tasks added in between are not missed
+		long signal = QueueSignal.get(queueName).version();
+
+		QueueSettings queueSettings = settings.get(queueName);
+		TaskPriority[] priorities = TaskPriority.values(); // from lowest to highest
+
+		// queue info is read only if needed: to check if priority found empty is still empty or to look up position of open tasks
+		boolean needed = false;
+		for (TaskPriority priority : priorities) {
+
+			QueueCursor cursor = getCursor(queueName, priority);
+			needed = needed || cursor.wasEmpty() || cursor.get(now) < 0;
 		}
+
+		QueueInfo info = needed ? sfy.get(QueueInfo.class).key(queueName).now() : null;
+
+		if (queueSettings.getPriorityAgingSeconds() > 0) {
+
+			long aged = QueueTask.getOpenBucket(now - queueSettings.getPriorityAgingSeconds() * 1000L);
+
+			// lowest priorities first ... highest priority is served first anyway
+			for (int i = 0; i < priorities.length - 1; i++) {
+
+				long oldest = getCursor(queueName, priorities[i]).get(now);
+				if (oldest >= 0 && oldest <= aged) {
+
+					List<QueueTask> found = listOpen(queueName, priorities[i], now, info, signal);
+					if (found.size() > 0) {
+						return found;
+					}
+				}
+			}
+		}
+
+		for (int i = priorities.length - 1; i >= 0; i--) {
+
+			List<QueueTask> found = listOpen(queueName, priorities[i], now, info, signal);
+			if (found.size() > 0) {
+				return found;
+			}
+		}
+
+		return new ArrayList<>();
+	}
+
+	/**
+	 * Reads oldest open tasks of queue with given priority ... walks time buckets from last known position forward
+	 * a longer gap of empty buckets is skipped by jumping to the position other machines have moved to (stored in queue info),
+	 * otherwise walk is continued with next call ... open tasks are looked up with a full query only if position was never stored
+	 * priority found without open tasks is not read again until tasks are added (queue version or signal changes)
+	 *
+	 * @param queueName name of queue
+	 * @param priority  task priority
+	 * @param now       current time
+	 * @param info      queue info read before tasks are read (null if not read or queue is not registered)
+	 * @param signal    queue signal version taken before tasks are read
+	 * @return list of oldest open tasks or empty list if none found
+	 */
+	private List<QueueTask> listOpen(String queueName, TaskPriority priority, long now, QueueInfo info, long signal) {
+
+		QueueCursor cursor = getCursor(queueName, priority);
+
+		long current = QueueTask.getOpenBucket(now);
+		long version = info != null ? info.getVersion() : -1;
+
+		// no tasks added since found empty ... any new task will be put into one of the latest buckets
+		if (cursor.isEmpty(version, signal)) {
+			cursor.moveTo(current - SKEW_BUCKETS);
+			return new ArrayList<>();
+		}
+
+		long start = cursor.get(now);
+
+		if (start < 0) {
+
+			// position unknown or stale ... continue from position stored by other machines
+			start = info != null ? info.getOpenCursor(priority) : -1;
+			if (start < 0) {
+				return lookupOpen(queueName, priority, now);
+			}
+
+			cursor.anchor(start, now);
+		}
+
+		List<QueueTask> found = listOpen(queueName, priority, cursor, start, current);
+
+		if (found == null) {
+
+			// to many empty buckets ... jump forward if other machines have already moved past them
+			long shared = getOpenCursor(queueName, priority);
+			if (shared > cursor.get(now)) {
+
+				cursor.moveTo(shared);
+				found = listOpen(queueName, priority, cursor, shared, current);
+			}
+		}
+
+		// found empty without queue version known ... version is read before buckets are read next time
+		if (found != null && found.isEmpty()) {
+			cursor.empty(version, signal);
+		}
+		else if (found != null) {
+			cursor.found();
+		}
+
+		shareOpenCursor(queueName, priority, cursor);
+		return found != null ? found : new ArrayList<QueueTask>();
+	}
+
+	/**
+	 * Walks open task time buckets until first one holding open tasks ... cursor is moved past empty buckets
+	 *
+	 * @param queueName name of queue
+	 * @param priority  task priority
+	 * @param cursor    cursor of queue and priority
+	 * @param start     first bucket to read
+	 * @param current   current time bucket
+	 * @return oldest open tasks found, empty list if all buckets until now are empty, null if gap of empty buckets is to long to be read at once
+	 */
+	private List<QueueTask> listOpen(String queueName, TaskPriority priority, QueueCursor cursor, long start, long current) {
+
+		long bucket = start;
+		for (int checked = 0; checked < MAX_EMPTY_BUCKETS && bucket <= current; checked++, bucket++) {
+
+			List<QueueTask> found = sfy.query(QueueTask.class)
+									   .filter("openFilter", QueueTask.getOpenFilter(queueName, priority, bucket))
+									   .now()
+									   .toList();
+
+			if (found.size() > 0) {
+				cursor.moveTo(bucket);
+				return found;
+			}
+
+			// empty bucket can be skipped ... unless it is one of the latest buckets
+			if (bucket < current - SKEW_BUCKETS) {
+				cursor.moveTo(bucket + 1);
+			}
+		}
+
+		// all buckets until now are empty ... no open tasks
+		return bucket > current ? new ArrayList<QueueTask>() : null;
+	}
+
+	/**
+	 * Looks up oldest open task of each priority with a full query of open tasks
+	 * (only for queues where position of open tasks was never stored)
+	 *
+	 * @param queueName name of queue
+	 * @param priority  task priority
+	 * @param now       current time
+	 * @return list of open tasks with given priority
+	 */
+	private List<QueueTask> lookupOpen(String queueName, TaskPriority priority, long now) {
+
+		long current = QueueTask.getOpenBucket(now);
+
+		List<QueueTask> all = sfy.query(QueueTask.class)
+								 .filter("lockFilter", QueueTask.getLockedFilter(queueName, false))
+								 .now()
+								 .toList();
+
+		Map<TaskPriority, Long> oldest = new HashMap<>();
+		for (TaskPriority item : TaskPriority.values()) {
+			oldest.put(item, current - SKEW_BUCKETS);
+		}
+
+		List<QueueTask> found = new ArrayList<>();
+		for (QueueTask task : all) {
+
+			long bucket = QueueTask.getOpenBucket(task.getUpdateTime());
+			oldest.put(task.getPriority(), Math.min(oldest.get(task.getPriority()), bucket));
+
+			if (priority.equals(task.getPriority())) {
+				found.add(task);
+			}
+		}
+
+		for (TaskPriority item : TaskPriority.values()) {
+
+			QueueCursor cursor = getCursor(queueName, item);
+			cursor.anchor(oldest.get(item), now);
+			shareOpenCursor(queueName, item, cursor);
+		}
+
+		return found;
+	}
+
+	/**
+	 * @param queueName name of queue
+	 * @param priority  task priority
+	 * @return oldest open time bucket stored in queue info, -1 if unknown
+	 */
+	private long getOpenCursor(String queueName, TaskPriority priority) {
+
+		QueueInfo info = sfy.get(QueueInfo.class).key(queueName).now();
+		return info != null ? info.getOpenCursor(priority) : -1;
+	}
+
+	/**
+	 * Stores position of cursor into queue info once moved forward (so other machines don't need to read already empty buckets)
+	 * open tasks are always put into current time bucket so stored position is only moved forward
+	 *
+	 * @param queueName name of queue
+	 * @param priority  task priority
+	 * @param cursor    cursor of queue and priority
+	 */
+	private void shareOpenCursor(final String queueName, final TaskPriority priority, QueueCursor cursor) {
+
+		final long bucket = cursor.share();
+		if (bucket < 0) {
+			return;
+		}
+
+		sfy.transact(5, new Work<QueueInfo>() {
+			@Override
+			public QueueInfo run() {
+
+				QueueInfo original = sfy.get(QueueInfo.class).key(queueName).now();
+				if (original == null || original.getOpenCursor(priority) >= bucket) {
+					return original;
+				}
+
+				original.setOpenCursor(priority, bucket);
+				sfy.update(original).now();
+				return original;
+			}});
+	}
+
+	/**
+	 * Makes delayed tasks that are due to run visible as open tasks
+	 * walks delay time buckets from oldest bucket that might hold delayed tasks until now (future buckets are never read)
+	 *
+	 * @param queueName name of queue
+	 * @param now       current time
+	 */
+	private void promote(String queueName, long now) {
+
+		Long last = promoted.get(queueName);
+		if (last != null && now - last < PROMOTE_INTERVAL_MILLIS) {
+			return;
+		}
+
+		promoted.put(queueName, now);
+
+		long current = QueueTask.getDelayBucket(now);
+		long start = getDelayCursor(queueName, current);
+		long oldest = start;
+
+		boolean complete = true; // all buckets so far are without delayed tasks
+		int count = 0;
+
+		for (long bucket = start; bucket <= current; bucket++) {
+
+			List<QueueTask> found = sfy.query(QueueTask.class)
+									   .filter("delayFilter", QueueTask.getDelayFilter(queueName, bucket))
+									   .now()
+									   .toList();
+
+			for (QueueTask task : found) {
+
+				if (!task.isDelayed() || task.getRunAt() > now) {
+					// not due yet (or changed in the mean time)
+					complete = false;
+					continue;
+				}
+
+				QueueTask open = task.copy();
+				open.promote();
+
+				if (write(open)) {
+					counter.collectDelayed(queueName, open.getState(), -1);
+					count++;
+				}
+				else {
+					// promoted by other thread ... or failed and must be promoted again
+					complete = false;
+				}
+			}
+
+			// move past buckets without delayed tasks ... unless it is one of the latest buckets (clock skew)
+			if (complete && bucket < current - 1) {
+				oldest = bucket + 1;
+			}
+		}
+
+		if (count > 0) {
+			counter.wakeUp(queueName);
+			log.debug("[" + queueName + "] promoted: " + count + " delayed task(s).");
+		}
+
+		if (oldest > start) {
+			setDelayCursor(queueName, oldest);
+		}
+	}
+
+	private long getDelayCursor(String queueName, long current) {
+
+		Long bucket = delayCursors.get(queueName);
+		if (bucket == null) {
+
+			QueueInfo info = sfy.get(QueueInfo.class).key(queueName).now();
+			bucket = info != null && info.getDelayCursor() > 0 ? info.getDelayCursor() : current - DELAY_LOOKBACK_BUCKETS;
+
+			delayCursors.put(queueName, bucket);
+		}
+
+		return bucket;
+	}
+
+	/**
+	 * Moves delay cursor forward and stores it into queue info (so other machines don't need to read already promoted buckets)
+	 *
+	 * @param queueName name of queue
+	 * @param bucket    oldest delay time bucket that might hold delayed tasks
+	 */
+	private void setDelayCursor(final String queueName, final long bucket) {
+
+		delayCursors.put(queueName, bucket);
+
+		sfy.transact(5, new Work<QueueInfo>() {
+			@Override
+			public QueueInfo run() {
+
+				QueueInfo original = sfy.get(QueueInfo.class).key(queueName).now();
+				if (original == null || original.getDelayCursor() >= bucket) {
+					return original;
+				}
+
+				original.setDelayCursor(bucket);
+				sfy.update(original).now();
+				return original;
+			}});
+	}
+
+	private QueueCursor getCursor(String queueName, TaskPriority priority) {
+
+		String key = queueName + "::" + priority.name();
+
+		QueueCursor cursor = cursors.get(key);
+		if (cursor == null) {
+			cursors.putIfAbsent(key, new QueueCursor());
+			cursor = cursors.get(key);
+		}
+
+		return cursor;
+	}
+
+	@Override
+	public QueueTask renew(QueueTask task) {
+
+		Assert.notNull(task, "Missing job!");
+		Assert.isTrue(TaskState.running.equals(task.getState()), "Only running job can be renewed!");
+
+		QueueSettings queueSettings = settings.get(task.getQueue());
+
+		// still within slack ... full time out is left
+		long now = System.currentTimeMillis();
+		if (task.getDeadline() - now >= queueSettings.getTaskTimeoutSeconds() * 1000L) {
+			return task;
+		}
+
+		QueueTask updated = task.getGeneration() != null ? task.copy() : sfy.get(QueueTask.class).key(task.getId()).now();
+
+		if (updated == null || !updated.isClaimedBy(task.getOwner(), task.getFence())) {
+			log.warn("Could not renew job: " + task + ", claim with fencing token: " + task.getFence() + " was lost!");
+			QueuePermitLimiter.done(task.getId());
+			return null;
+		}
+
+		updated.renew(getDeadline(queueSettings, now));
+		if (write(updated)) {
+
+			// running task permit is extended together with claim
+			if (queueSettings.getMaxRunning() > 0) {
+				QueuePermitLimiter.renew(updated.getId(), getLeaseMillis(queueSettings));
+			}
+
+			return updated;
+		}
+
+		// modified by other machine in the mean time
+		QueuePermitLimiter.done(task.getId());
+		return null;
+	}
+
+	/**
+	 * @param queueSettings settings of queue
+	 * @param now           current time
+	 * @return deadline of task claimed now
+	 */
+	private static long getDeadline(QueueSettings queueSettings, long now) {
+
+		return now + (queueSettings.getTaskTimeoutSeconds() + DEADLINE_SLACK_SECONDS) * 1000L;
+	}
+
+	@Override
+	public int redrive(String queueName, int maxTasks) {
+
+		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+		Assert.isTrue(maxTasks > 0, "Number of tasks must be >= 1!");
+
+		// read dead tasks only until given number is re-queued ... re-queued tasks are not found by next call
+		ResultSet<QueueTask> dead = sfy.query(QueueTask.class)
+									   .filter("stateFilter", QueueTask.getStateFilter(queueName, TaskState.dead))
+									   .now();
+
+		int count = 0;
+		try {
+			Iterator<QueueTask> iterator = dead.iterator();
+			while (count < maxTasks && iterator.hasNext()) {
+
+				QueueTask task = change(iterator.next(), TaskState.queued);
+				if (task != null) {
+					count++;
+				}
+			}
+		}
+		finally {
+			dead.close();
+		}
+
+		if (count > 0) {
+			setQueueInfoCount(queueName, TaskState.dead, TaskState.queued, count);
+			QueueSignal.get(queueName).signal(count);
+
+			log.info("[" + queueName + "] re-queued: " + count + " dead task(s).");
+		}
+
+		return count;
+	}
+
+	@Override
+	public List<QueueTask> list(TaskState state, String queueName) {
+
+		Assert.notNull(state, "Missing job state!");
+		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+
+		ResultSet<QueueTask> query = sfy.query(QueueTask.class)
+										.filter("stateFilter", QueueTask.getStateFilter(queueName, state))
+										.now();
+		return query.toList();
+	}
+
+	@Override
+	public List<QueueTask> listDelayed(String queueName) {
+
+		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+
+		return sfy.query(QueueTask.class)
+				  .filter("stateFilter", QueueTask.getDelayedFilter(queueName))
+				  .now()
+				  .toList();
+	}
+
+	@Override
+	public List<QueueTask> listByDeadline(String queueName, long deadlineBucket) {
+
+		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+
+		return sfy.query(QueueTask.class)
+				  .filter("deadlineFilter", QueueTask.getDeadlineFilter(queueName, deadlineBucket))
+				  .now()
+				  .toList();
+	}
+
+	@Override
+	public QueueTask transition(QueueTask task, TaskState newState) {
+
+		return transition(task, newState, true);
+	}
+
+	@Override
+	public QueueTask transition(QueueTask task, TaskState newState, boolean commitCounters) {
+
+		Assert.notNull(task, "Missing job!");
+		Assert.notNull(newState, "Missing state!");
+
+		QueueTask updated = change(task, newState);
+
+		// change queue info count (task might end up in other state than desired: interrupted to many times = failed)
+		if (updated != null) {
+			collect(task, updated);
+
+			if (commitCounters) {
+				counter.commit(updated.getQueue());
+			}
+
+			released(task, updated);
+		}
+
+		return updated;
+	}
+
+	@Override
+	public void commit(String queueName) {
+
+		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+		counter.commit(queueName);
+	}
+
+	@Override
+	public void close() {
+
+		counter.close();
+	}
+
+	@Override
+	public List<QueueTask> transition(List<QueueTask> tasks, List<TaskState> newStates) {
+
+		Assert.notNull(tasks, "Missing jobs!");
+		Assert.notNull(newStates, "Missing states!");
+		Assert.isTrue(tasks.size() == newStates.size(), "Expected: " + tasks.size() + " states, but got: " + newStates.size() + "!");
+
+		List<QueueTask> out = new ArrayList<>(tasks.size());
+
+		// collect counter changes per queue ... stored with one command per queue
+		Set<String> queues = new HashSet<>();
+
+		try {
+			for (int i = 0; i < tasks.size(); i++) {
+
+				QueueTask task = tasks.get(i);
+				TaskState newState = newStates.get(i);
+				Assert.notNull(newState, "Missing state!");
+
+				QueueTask updated = change(task, newState);
+				out.add(updated);
+
+				if (updated != null) {
+					collect(task, updated);
+					queues.add(updated.getQueue());
+					released(task, updated);
+				}
+			}
+		}
+		finally {
+			// changes of tasks transitioned before failure are stored too
+			for (String queue : queues) {
+				counter.commit(queue);
+			}
+		}
+
+		return out;
+	}
+
+	/**
+	 * Collects queue info counter changes of transitioned task ... delayed tasks are counted apart from their state
+	 *
+	 * @param task    task before transition
+	 * @param updated transitioned task
+	 */
+	private void collect(QueueTask task, QueueTask updated) {
+
+		if (task.isDelayed()) {
+			counter.collectDelayed(task.getQueue(), task.getState(), -1);
+		}
+
+		counter.collect(updated.getQueue(), task.getState(), updated.getState(), 1);
+
+		// failed task waiting for retry
+		if (updated.isDelayed()) {
+			counter.collectDelayed(updated.getQueue(), updated.getState(), 1);
+		}
+	}
+
+	/**
+	 * Releases running task permit (if any) once task is done running
+	 *
+	 * @param task    task before transition
+	 * @param updated transitioned task
+	 */
+	private void released(QueueTask task, QueueTask updated) {
+
+		if (TaskState.running.equals(task.getState())) {
+
+			QueuePermitLimiter limiter = permits.get(updated.getQueue());
+			if (limiter != null) {
+				limiter.release(updated.getId());
+			}
+		}
+	}
+
+	/**
+	 * Transitions task into new state without updating queue info counters
+	 * given task is left intact, transitioned copy is returned on success
+	 *
+	 * @param task     to transition state
+	 * @param newState to transition to
+	 * @return updated task or null if transition failed
+	 */
+	private QueueTask change(QueueTask task, TaskState newState) {
+
+		QueueTask updated;
+
+		if (task.getGeneration() == null) {
+			// task was not read from database ... get latest version
+			updated = sfy.get(QueueTask.class).key(task.getId()).now();
+
+			if (updated == null || !updated.getUpdateTime().equals(task.getUpdateTime())) {
+				log.debug("Could not transition job: " + task + " to: " + newState + ", thread collision (diff in update time)!");
+				return null;
+			}
+		}
+		else {
+			updated = task.copy();
+		}
+
+		// task claimed again in the mean time (by other node) ... stale worker can't change it (fencing)
+		if (TaskState.running.equals(task.getState()) && !updated.isClaimedBy(task.getOwner(), task.getFence())) {
+			log.warn("Could not transition job: " + task + " to: " + newState + ", claim with fencing token: " + task.getFence() + " was lost!");
+			return null;
+		}
+
+		QueueSettings queueSettings = settings.get(updated.getQueue());
+
+		try {
+			updated.setMaxRetries(queueSettings.getMaxRetries());
+			updated.setState(newState, UUID.randomUUID().toString());
+		}
+		catch (TaskQueueError e) {
+			// we don't have the latest version from database or transition is not possible
+			log.debug("Could not transition job: " + task + " to: " + newState + ", " + e.getMessage());
+			return null;
+		}
+
+		// failed task to be retried ... wait before it is picked up again (delayed tasks are not visible to next)
+		if (TaskState.failed.equals(updated.getState()) && !updated.isLocked()) {
+
+			long delay = queueSettings.getRetryDelayMillis(updated.getRunCount());
+			if (delay > 0 && TaskState.failed.equals(newState)) {
+				updated.delay(System.currentTimeMillis() + delay);
+			}
+		}
+
+		// failed to many times ... move to dead letters (with same write)
+		if (TaskState.failed.equals(updated.getState()) && updated.isLocked() && queueSettings.isDeadLetter()) {
+			updated.setState(TaskState.dead, updated.getLock());
+		}
+
+		// claim running task for this node ... recovered if node dies or task is not done until deadline
+		if (TaskState.running.equals(updated.getState())) {
+			updated.claim(NodeRegistry.getLocalId(), getDeadline(queueSettings, System.currentTimeMillis()));
+		}
+
+		return write(updated) ? updated : null;
+	}
+
+	/**
+	 * Single conditional write ... update is only stored if task was not modified since it was read (generation check)
+	 *
+	 * @param task to be stored
+	 * @return true if stored, false in case task was modified by other thread in the mean time (or removed)
+	 */
+	private boolean write(QueueTask task) {
+
+		Integer generation = task.getGeneration();
+
+		try {
+			// Spikeify update expects same generation as given in @Generation field
+			sfy.update(task).now();
+
+			task.setGeneration(generation + 1);
+			return true;
+		}
+		catch (ConcurrentModificationException e) {
+			// job modified by other thread ... transition failed
+			log.debug("Could not transition job: " + task + ", thread collision!");
+			return false;
+		}
+		catch (AerospikeException e) {
+
+			if (e.getResultCode() == ResultCode.GENERATION_ERROR ||
+				e.getResultCode() == ResultCode.KEY_NOT_FOUND_ERROR) {
+				log.debug("Could not transition job: " + task + ", thread collision!");
+			}
+			else {
+				log.error("Could not transition job: " + task + "!", e);
+			}
+
+			return false;
+		}
+	}
+
+	private void setQueueInfoCount(String queue, TaskState oldState, TaskState newState, int count) {
+
+		counter.count(queue, oldState, newState, count);
 	}
 
 	/**
@@ -0,0 +1,270 @@
+package com.spikeify.taskqueue.service;
+
+import com.aerospike.client.Key;
+import com.spikeify.Spikeify;
+import com.spikeify.SpikeifyService;
+import com.spikeify.commands.AcceptFilter;
+import com.spikeify.taskqueue.entities.QueueTask;
+import com.spikeify.taskqueue.entities.TaskState;
+import com.spikeify.taskqueue.entities.WorkerNode;
+import com.spikeify.taskqueue.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps this node alive with a single write per heartbeat (queues, threads and tasks executed) and recovers tasks of nodes that stopped sending heartbeats
+ * expired nodes are found by lease expiration time bucket (no scan of running tasks needed)
+ * and tasks of this node claimed again by other nodes are interrupted
+ * <p>
+ * single registry per node (JVM) shared by all queue managers
+ */
+public class NodeRegistry implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(NodeRegistry.class);
+
+	/**
+	 * number of seconds between two heartbeats
+	 */
+	public static final int HEARTBEAT_SECONDS = 5;
+
+	/**
+	 * number of seconds node lease is valid ... node is considered dead after three missed heartbeats
+	 */
+	public static final int LEASE_SECONDS = 3 * HEARTBEAT_SECONDS;
+
+	/**
+	 * number of expiry time buckets read when started (nodes that expired before are not recovered)
+	 */
+	private static final int LOOKBACK_BUCKETS = 12;
+
+	/**
+	 * unique id of this node (JVM)
+	 */
+	private static final String LOCAL_ID = createId();
+
+	/**
+	 * time this node (JVM) was started
+	 */
+	private static final long STARTED = System.currentTimeMillis();
+
+	private final Spikeify sfy;
+
+	private final TaskQueueService queues;
+
+	/**
+	 * schedulers of queues started on this node (by any manager) with name of queue
+	 */
+	private final Map<QueueScaler, String> started = new ConcurrentHashMap<>();
+
+	/**
+	 * oldest expiry bucket that might hold expired nodes
+	 */
+	private long cursor = -1;
+
+	public NodeRegistry(Spikeify spikeify, TaskQueueService queueService) {
+
+		Assert.notNull(spikeify, "Missing spikeify!");
+		Assert.notNull(queueService, "Missing queue service!");
+
+		sfy = spikeify;
+		queues = queueService;
+
+		SpikeifyService.register(WorkerNode.class);
+	}
+
+	/**
+	 * @return unique id of this node (JVM)
+	 */
+	public static String getLocalId() {
+
+		return LOCAL_ID;
+	}
+
+	/**
+	 * Adds queue to work reported with heartbeats
+	 *
+	 * @param queueName name of started queue
+	 * @param scaler    queue schedulers
+	 */
+	public void started(String queueName, QueueScaler scaler) {
+
+		started.put(scaler, queueName);
+	}
+
+	/**
+	 * Removes queue from work reported with heartbeats
+	 *
+	 * @param scaler schedulers of stopped queue
+	 */
+	public void stopped(QueueScaler scaler) {
+
+		if (scaler != null) {
+			started.remove(scaler);
+		}
+	}
+
+	/**
+	 * @return live nodes (with valid lease) and their work
+	 */
+	public List<WorkerNode> nodes() {
+
+		final long now = System.currentTimeMillis();
+
+		return sfy.scanAll(WorkerNode.class).filter(new AcceptFilter<WorkerNode>() {
+			@Override
+			public boolean accept(WorkerNode node) {
+
+				return !node.isExpired(now);
+			}
+		}).now();
+	}
+
+	@Override
+	public synchronized void run() {
+
+		try {
+			heartbeat();
+			RunningTasks.check(sfy, LOCAL_ID);
+			recover();
+		}
+		catch (Exception e) {
+			// exception here should not stop heartbeats
+			log.error("Node heartbeat failed!", e);
+		}
+	}
+
+	/**
+	 * Renews lease of this node and stores its current work (single write)
+	 */
+	public void heartbeat() {
+
+		// same queue might be started by more than one manager
+		Map<String, Integer> threads = new HashMap<>();
+		for (Map.Entry<QueueScaler, String> entry : started.entrySet()) {
+
+			Integer count = threads.get(entry.getValue());
+			threads.put(entry.getValue(), (count == null ? 0 : count) + entry.getKey().getThreads());
+		}
+
+		WorkerNode node = new WorkerNode(LOCAL_ID, STARTED);
+		node.setWork(threads, RunningTasks.ids());
+		node.renew(System.currentTimeMillis(), LEASE_SECONDS * 1000L);
+
+		sfy.update(node).now();
+	}
+
+	/**
+	 * Re-queues running tasks of nodes with expired lease
+	 *
+	 * @return number of re-queued tasks
+	 */
+	public int recover() {
+
+		long now = System.currentTimeMillis();
+		long current = WorkerNode.getExpiryBucket(now);
+
+		if (cursor < 0) {
+			cursor = current - LOOKBACK_BUCKETS;
+		}
+
+		int count = 0;
+
+		for (long bucket = cursor; bucket <= current; bucket++) {
+
+			List<WorkerNode> found = sfy.query(WorkerNode.class)
+										.filter("expiryFilter", WorkerNode.getExpiryFilter(bucket))
+										.now()
+										.toList();
+
+			boolean complete = true;
+
+			for (WorkerNode node : found) {
+
+				if (LOCAL_ID.equals(node.getId())) {
+					continue;
+				}
+
+				if (!node.isExpired(now)) {
+					complete = false;
+					continue;
+				}
+
+				count = count + recover(node);
+			}
+
+			// move past buckets of recovered nodes
+			if (complete && bucket < current) {
+				cursor = bucket + 1;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Re-queues running tasks of dead node and removes node
+	 *
+	 * @param node expired node
+	 * @return number of re-queued tasks
+	 */
+	private int recover(WorkerNode node) {
+
+		// tasks running at last heartbeat (single batch read) ...
+		Map<String, QueueTask> owned = new HashMap<>();
+		if (node.getRunning().size() > 0) {
+
+			List<String> ids = node.getRunning();
+			Map<Key, QueueTask> found = sfy.get(QueueTask.class).keys(ids.toArray(new String[ids.size()])).now();
+			for (QueueTask task : found.values()) {
+				if (task != null) {
+					owned.put(task.getId(), task);
+				}
+			}
+		}
+
+		// ... and tasks claimed after last heartbeat
+		List<QueueTask> claimed = sfy.query(QueueTask.class)
+									 .filter("owner", node.getId())
+									 .now()
+									 .toList();
+		for (QueueTask task : claimed) {
+			owned.put(task.getId(), task);
+		}
+
+		int count = 0;
+		for (QueueTask task : owned.values()) {
+
+			// put into interrupted state ... so task can be picked up again
+			if (TaskState.running.equals(task.getState()) &&
+				node.getId().equals(task.getOwner()) &&
+				queues.transition(task, TaskState.interrupted) != null) {
+				count++;
+			}
+		}
+
+		log.warn("Node: " + node.getId() + " has stopped, re-queued: " + count + " task(s) of: " + node.getQueues());
+
+		sfy.delete(node).now();
+		return count;
+	}
+
+	private static String createId() {
+
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		}
+		catch (Exception e) {
+			host = "unknown";
+		}
+
+		return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+	}
+}
@@ -0,0 +1,127 @@
+package com.spikeify.taskqueue.service;
+
+/**
+ * Remembers the oldest time bucket of a queue that might still hold open tasks (one per queue per JVM)
+ * ... so only a small window of tasks must be read when choosing the next task
+ */
+class QueueCursor {
+
+	/**
+	 * cursor is considered stale after given time and bucket must be looked up again (catches up with other machines)
+	 */
+	private static final long ANCHOR_INTERVAL = 10 * 60 * 1000L;
+
+	/**
+	 * oldest bucket holding open tasks, -1 if unknown
+	 */
+	private long bucket = -1;
+
+	/**
+	 * time bucket was last looked up
+	 */
+	private long anchorTime;
+
+	/**
+	 * bucket last stored into queue info (shared with other machines), -1 if not stored
+	 */
+	private long shared = -1;
+
+	/**
+	 * queue version and signal version all buckets until now were found empty with, -1 if not found empty
+	 * (queue version is -1 if found empty without queue version known)
+	 */
+	private long emptyVersion = -1;
+
+	private long emptySignal = -1;
+
+	/**
+	 * @param now current time
+	 * @return bucket to start reading from or -1 if bucket is unknown or stale and must be looked up
+	 */
+	synchronized long get(long now) {
+
+		if (bucket < 0 || now - anchorTime > ANCHOR_INTERVAL) {
+			return -1;
+		}
+
+		return bucket;
+	}
+
+	/**
+	 * Moves cursor forward (cursor is never moved backwards)
+	 *
+	 * @param newBucket to move to
+	 */
+	synchronized void moveTo(long newBucket) {
+
+		if (newBucket > bucket) {
+			bucket = newBucket;
+		}
+	}
+
+	/**
+	 * Sets cursor to looked up position
+	 *
+	 * @param newBucket oldest bucket found
+	 * @param now       current time
+	 */
+	synchronized void anchor(long newBucket, long now) {
+
+		bucket = newBucket;
+		anchorTime = now;
+	}
+
+	/**
+	 * Takes position to be shared with other machines ... once cursor was moved forward
+	 *
+	 * @return bucket to be stored into queue info or -1 if cursor was not moved since last stored
+	 */
+	synchronized long share() {
+
+		if (bucket < 0 || bucket <= shared) {
+			return -1;
+		}
+
+		shared = bucket;
+		return bucket;
+	}
+
+	/**
+	 * Remembers that no open tasks were found
+	 *
+	 * @param version queue version taken before buckets were read (-1 if not known)
+	 * @param signal  queue signal version taken before buckets were read
+	 */
+	synchronized void empty(long version, long signal) {
+
+		emptyVersion = version;
+		emptySignal = signal;
+	}
+
+	/**
+	 * Forgets that no open tasks were found (open tasks were found)
+	 */
+	synchronized void found() {
+
+		emptyVersion = -1;
+		emptySignal = -1;
+	}
+
+	/**
+	 * @return true if found empty last time ... queue version is needed to check if still empty
+	 */
+	synchronized boolean wasEmpty() {
+
+		return emptySignal >= 0;
+	}
+
+	/**
+	 * @param version current queue version
+	 * @param signal  current queue signal version
+	 * @return true if found empty and no tasks were added since (on this or other machines)
+	 */
+	synchronized boolean isEmpty(long version, long signal) {
+
+		return emptyVersion >= 0 && emptyVersion == version && emptySignal == signal;
+	}
+}
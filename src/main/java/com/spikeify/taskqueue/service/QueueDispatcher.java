@@ -0,0 +1,261 @@
+package com.spikeify.taskqueue.service;
+
+import com.spikeify.taskqueue.entities.QueueSettings;
+import com.spikeify.taskqueue.entities.QueueTask;
+import com.spikeify.taskqueue.entities.TaskState;
+import com.spikeify.taskqueue.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single dispatcher per queue per JVM
+ * claims tasks from queue into a bounded local buffer, worker threads take tasks from the buffer
+ * instead of competing with each other for the same tasks in the database
+ * (buffer is refilled in background, claims of buffered tasks are renewed while waiting and once taken)
+ */
+public class QueueDispatcher {
+
+	private static final Logger log = LoggerFactory.getLogger(QueueDispatcher.class);
+
+	/**
+	 * max time in seconds to wait for refill in progress when released
+	 */
+	private static final int RELEASE_TIMEOUT_SECONDS = 10;
+
+	private final TaskQueueService queues;
+
+	private final String queueName;
+
+	/**
+	 * buffer is refilled when number of buffered tasks drops to or below watermark
+	 */
+	private final int watermark;
+
+	/**
+	 * claimed tasks (in running state) waiting to be executed
+	 */
+	private final LinkedBlockingQueue<QueueTask> buffer;
+
+	/**
+	 * only one thread at a time is claiming tasks from queue
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * refills buffer and renews claims of buffered tasks in background ... so workers don't wait for claims
+	 */
+	private final ScheduledExecutorService refiller;
+
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	public QueueDispatcher(TaskQueueService queueService, String queue, QueueSettings settings) {
+
+		this(queueService, queue, settings, settings != null ? settings.getPrefetchSize() : 0);
+	}
+
+	/**
+	 * @param queueService queue service
+	 * @param queue        name of queue
+	 * @param settings     queue settings
+	 * @param prefetchSize number of buffered tasks (instead of prefetch size given in settings)
+	 */
+	public QueueDispatcher(TaskQueueService queueService, String queue, QueueSettings settings, int prefetchSize) {
+
+		Assert.notNull(queueService, "Missing queue service!");
+		Assert.notNullOrEmpty(queue, "Missing queue name!");
+		Assert.notNull(settings, "Missing queue settings!");
+		Assert.isTrue(prefetchSize > 0, "Prefetch size must be >= 1!");
+
+		queues = queueService;
+		queueName = queue;
+
+		buffer = new LinkedBlockingQueue<>(prefetchSize);
+		watermark = Math.min(settings.getPrefetchWatermark(), prefetchSize - 1);
+
+		refiller = Executors.newSingleThreadScheduledExecutor(new TaskThreadFactory(queue + "-dispatcher", true, false));
+
+		// renew before deadline of buffered task passes ... claim is renewed only once less than time out is left
+		long renewMillis = Math.min(settings.getTaskTimeoutSeconds(), DefaultTaskQueueService.DEADLINE_SLACK_SECONDS) * 1000L / 2;
+		refiller.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+
+				try {
+					renew();
+				}
+				catch (Exception e) {
+					// claims are renewed with next run or when taken
+					log.error("[" + queueName + "] failed to renew buffered tasks!", e);
+				}
+			}
+		}, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Takes next task from buffer ... buffer is refilled in background once it drops to watermark
+	 * claim of task waiting in buffer is renewed, so it gets its full time out once executed
+	 *
+	 * @return task in running state or null if queue is empty
+	 */
+	public QueueTask next() {
+
+		while (true) {
+
+			QueueTask task = take();
+			if (task == null) {
+				return null;
+			}
+
+			// claim lost while buffered (purged) ... take next one
+			QueueTask renewed = queues.renew(task);
+			if (renewed != null) {
+				return renewed;
+			}
+		}
+	}
+
+	private QueueTask take() {
+
+		QueueTask task = buffer.poll();
+
+		if (task != null) {
+
+			if (buffer.size() <= watermark) {
+				refill();
+			}
+
+			return task;
+		}
+
+		// buffer is empty ... wait for refill in progress or refill
+		lock.lock();
+		try {
+			task = buffer.poll();
+			if (task == null) {
+				fill();
+				task = buffer.poll();
+			}
+
+			return task;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Refills buffer in background ... in case no refill is scheduled already
+	 */
+	private void refill() {
+
+		if (!scheduled.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			refiller.execute(new Runnable() {
+				@Override
+				public void run() {
+
+					lock.lock();
+					try {
+						scheduled.set(false);
+						fill();
+					}
+					catch (Exception e) {
+						// workers will refill once buffer is empty
+						log.error("[" + queueName + "] failed to refill buffer!", e);
+					}
+					finally {
+						lock.unlock();
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			// released
+			scheduled.set(false);
+		}
+	}
+
+	/**
+	 * Renews claims of buffered tasks waiting to be taken ... so they are not purged as timed out
+	 * (tasks with claim lost are dropped)
+	 */
+	private void renew() {
+
+		lock.lock();
+		try {
+			List<QueueTask> list = new ArrayList<>();
+			buffer.drainTo(list);
+
+			for (QueueTask task : list) {
+
+				QueueTask renewed = queues.renew(task);
+				if (renewed != null) {
+					buffer.add(renewed);
+				}
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private void fill() {
+
+		int free = buffer.remainingCapacity();
+		if (free > 0) {
+			buffer.addAll(queues.next(queueName, free));
+		}
+	}
+
+	/**
+	 * @return number of buffered tasks
+	 */
+	public int size() {
+
+		return buffer.size();
+	}
+
+	/**
+	 * Releases buffered tasks back to the queue (when queue is stopped)
+	 */
+	public void release() {
+
+		// wait for refill in progress ... so claimed tasks end up in buffer (renewals are not run any more)
+		refiller.shutdown();
+
+		try {
+			refiller.awaitTermination(RELEASE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		List<QueueTask> list = new ArrayList<>();
+		buffer.drainTo(list);
+
+		for (QueueTask task : list) {
+
+			// put into interrupted state ... so task can be picked up again
+			if (queues.transition(task, TaskState.interrupted) == null) {
+				log.warn("Failed to release buffered job: " + task + "!");
+			}
+		}
+
+		if (list.size() > 0) {
+			log.info("[" + queueName + "] released: " + list.size() + " buffered task(s).");
+		}
+	}
+}
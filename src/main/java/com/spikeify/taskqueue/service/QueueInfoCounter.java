@@ -0,0 +1,377 @@
+package com.spikeify.taskqueue.service;
+
+import com.spikeify.Spikeify;
+import com.spikeify.taskqueue.entities.QueueInfo;
+import com.spikeify.taskqueue.entities.TaskState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects queue info counter changes locally and stores them with a single command per queue
+ * <p>
+ * flush interval 0 - changes are stored immediately (one command per change)
+ * flush interval > 0 - changes are stored in background, counters in database are eventually consistent
+ * and lag behind for at most the flush interval (pending changes are lost if JVM is killed)
+ */
+class QueueInfoCounter {
+
+	private static final Logger log = LoggerFactory.getLogger(QueueInfoCounter.class);
+
+	/**
+	 * time in milliseconds existence of queue info is cached (missing queue info is looked up each time)
+	 */
+	private static final long EXISTS_CACHE_MILLIS = 10 * 1000L;
+
+	/**
+	 * field names counted in queue info ... in addition to task state names
+	 */
+	private static final String[] TOTALS = {"totalTasks", "totalFinished", "totalFailed", "totalRetries", "version", "permitWaits", "permitWaitTime", "delayed"};
+
+	/**
+	 * time queue info was last found per queue (shared by all counters of JVM, cleared when queue is registered or unregistered)
+	 */
+	private static final Map<String, Long> found = new ConcurrentHashMap<>();
+
+	/**
+	 * counters storing changes in background ... flushed by a single thread and once more when JVM is shut down
+	 */
+	private static final Set<QueueInfoCounter> background = Collections.newSetFromMap(new ConcurrentHashMap<QueueInfoCounter, Boolean>());
+
+	private static ScheduledExecutorService flusher;
+
+	private final Spikeify sfy;
+
+	private final long flushInterval;
+
+	/**
+	 * pending counter changes per queue and field
+	 */
+	private final Map<String, Map<String, LongAdder>> pending = new ConcurrentHashMap<>();
+
+	/**
+	 * scheduled background flush (null if changes are stored immediately)
+	 */
+	private ScheduledFuture<?> flushing;
+
+	/**
+	 * set once closed ... changes are stored immediately from then on
+	 */
+	private volatile boolean closed;
+
+	QueueInfoCounter(Spikeify spikeify, long flushIntervalMillis) {
+
+		sfy = spikeify;
+		flushInterval = flushIntervalMillis;
+
+		if (flushInterval > 0) {
+
+			background.add(this);
+
+			flushing = getFlusher().scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+
+					flush();
+				}
+			}, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getFlusher() {
+
+		if (flusher == null) {
+
+			flusher = Executors.newSingleThreadScheduledExecutor(new TaskThreadFactory("queue-info-counter", true, false));
+
+			// store what is left when JVM is shut down
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+
+					for (QueueInfoCounter counter : background) {
+						counter.flush();
+					}
+				}
+			});
+		}
+
+		return flusher;
+	}
+
+	/**
+	 * Forgets cached existence of queue info ... to be called when queue is registered or unregistered
+	 *
+	 * @param queue name of queue
+	 */
+	static void changed(String queue) {
+
+		found.remove(queue);
+	}
+
+	/**
+	 * Counts task state change
+	 *
+	 * @param queue    name of queue
+	 * @param oldState state task was in (null if new task)
+	 * @param newState state task was put in
+	 * @param count    number of tasks changed
+	 */
+	void count(String queue, TaskState oldState, TaskState newState, int count) {
+
+		collect(queue, oldState, newState, count);
+		commit(queue);
+	}
+
+	/**
+	 * Collects task state change ... stored with next commit (or flush)
+	 *
+	 * @param queue    name of queue
+	 * @param oldState state task was in (null if new task)
+	 * @param newState state task was put in
+	 * @param count    number of tasks changed
+	 */
+	void collect(String queue, TaskState oldState, TaskState newState, int count) {
+
+		if (oldState != null) {
+			add(queue, oldState.name(), -count);
+		}
+
+		if (newState != null) {
+			add(queue, newState.name(), count);
+		}
+
+		// total count statistics
+		if (oldState == null && TaskState.queued.equals(newState)) {
+			add(queue, "totalTasks", count);
+		}
+
+		if (TaskState.finished.equals(newState)) {
+			add(queue, "totalFinished", count);
+		}
+
+		if (TaskState.failed.equals(newState) ||
+			(TaskState.dead.equals(newState) && !TaskState.failed.equals(oldState))) {
+			add(queue, "totalFailed", count);
+		}
+
+		if (TaskState.failed.equals(oldState) &&
+			TaskState.running.equals(newState)) {
+			add(queue, "totalRetries", count);
+		}
+
+		// new tasks to be picked up (failed tasks might be retried) ... signal to other machines
+		if (TaskState.queued.equals(newState) ||
+			TaskState.interrupted.equals(newState) ||
+			TaskState.failed.equals(newState)) {
+			add(queue, "version", 1);
+		}
+	}
+
+	/**
+	 * Collects tasks put aside until their run at time (delayed) or made visible again (promoted)
+	 * delayed tasks are counted apart from the state they are in
+	 *
+	 * @param queue name of queue
+	 * @param state state of delayed tasks
+	 * @param count number of delayed (&gt; 0) or promoted (&lt; 0) tasks
+	 */
+	void collectDelayed(String queue, TaskState state, int count) {
+
+		add(queue, state.name(), -count);
+		add(queue, "delayed", count);
+	}
+
+	/**
+	 * Stores collected changes of queue with a single command (unless stored in background)
+	 *
+	 * @param queue name of queue
+	 */
+	void commit(String queue) {
+
+		if (flushInterval <= 0 || closed) {
+			flush(queue);
+		}
+	}
+
+	/**
+	 * Stops background flush and stores pending changes ... changes are stored immediately from then on
+	 */
+	void close() {
+
+		closed = true;
+
+		if (flushing != null) {
+			flushing.cancel(false);
+			background.remove(this);
+		}
+
+		flush();
+	}
+
+	/**
+	 * Signals tasks can be picked up without being added (delayed tasks due to run, released running task permits)
+	 * sleeping schedulers on this machine are woken up immediately, on other machines once queue version change is stored
+	 *
+	 * @param queue name of queue
+	 */
+	void wakeUp(String queue) {
+
+		add(queue, "version", 1);
+		commit(queue);
+
+		QueueSignal.get(queue).signal();
+	}
+
+	/**
+	 * Counts time queue was waiting for running task permits
+	 *
+	 * @param queue      name of queue
+	 * @param waitMillis time in milliseconds permits were refused
+	 */
+	void countPermitWait(String queue, long waitMillis) {
+
+		add(queue, "permitWaits", 1);
+		add(queue, "permitWaitTime", waitMillis);
+
+		commit(queue);
+	}
+
+	private void add(String queue, String field, long delta) {
+
+		Map<String, LongAdder> fields = pending.get(queue);
+		if (fields == null) {
+			pending.putIfAbsent(queue, new ConcurrentHashMap<>());
+			fields = pending.get(queue);
+		}
+
+		LongAdder adder = fields.get(field);
+		if (adder == null) {
+			fields.putIfAbsent(field, new LongAdder());
+			adder = fields.get(field);
+		}
+
+		adder.add(delta);
+	}
+
+	/**
+	 * Stores pending changes of all queues
+	 */
+	void flush() {
+
+		for (String queue : pending.keySet()) {
+			flush(queue);
+		}
+	}
+
+	/**
+	 * Stores pending changes of queue with a single command
+	 *
+	 * @param queue name of queue
+	 */
+	void flush(String queue) {
+
+		Map<String, LongAdder> fields = pending.get(queue);
+		if (fields == null) {
+			return;
+		}
+
+		// take out pending values ... changes added concurrently stay for next flush
+		long[] states = new long[TaskState.values().length];
+		long[] totals = new long[TOTALS.length];
+		boolean changed = false;
+
+		for (TaskState state : TaskState.values()) {
+			states[state.ordinal()] = take(fields, state.name());
+			changed = changed || states[state.ordinal()] != 0;
+		}
+
+		for (int i = 0; i < TOTALS.length; i++) {
+			totals[i] = take(fields, TOTALS[i]);
+			changed = changed || totals[i] != 0;
+		}
+
+		if (!changed || !exists(queue)) {
+			return;
+		}
+
+		try {
+			// atomic counting of tasks in queue position (single multi bin operation)
+			sfy.command(QueueInfo.class).key(queue)
+			   .add(TaskState.queued.name(), states[TaskState.queued.ordinal()])
+			   .add(TaskState.running.name(), states[TaskState.running.ordinal()])
+			   .add(TaskState.finished.name(), states[TaskState.finished.ordinal()])
+			   .add(TaskState.interrupted.name(), states[TaskState.interrupted.ordinal()])
+			   .add(TaskState.failed.name(), states[TaskState.failed.ordinal()])
+			   .add(TaskState.purge.name(), states[TaskState.purge.ordinal()])
+			   .add(TaskState.dead.name(), states[TaskState.dead.ordinal()])
+			   .add(TOTALS[0], totals[0])
+			   .add(TOTALS[1], totals[1])
+			   .add(TOTALS[2], totals[2])
+			   .add(TOTALS[3], totals[3])
+			   .add(TOTALS[4], totals[4])
+			   .add(TOTALS[5], totals[5])
+			   .add(TOTALS[6], totals[6])
+			   .add(TOTALS[7], totals[7])
+			   .now();
+		}
+		catch (Exception e) {
+			// exception here should not stop working the whole queue ... changes are put back and stored with next flush
+			for (TaskState state : TaskState.values()) {
+				add(queue, state.name(), states[state.ordinal()]);
+			}
+
+			for (int i = 0; i < TOTALS.length; i++) {
+				add(queue, TOTALS[i], totals[i]);
+			}
+
+			log.error("Failed to count tasks!", e);
+		}
+	}
+
+	private static long take(Map<String, LongAdder> fields, String field) {
+
+		LongAdder adder = fields.get(field);
+		if (adder == null) {
+			return 0;
+		}
+
+		long value = adder.sum();
+		adder.add(-value);
+		return value;
+	}
+
+	/**
+	 * Counting is skipped for queues not registered (queue info is not present)
+	 * ... counting a queue not registered would create a partial queue info
+	 *
+	 * @param queue name of queue
+	 * @return true if queue info exists (cached for a short period of time if found)
+	 */
+	private boolean exists(String queue) {
+
+		long now = System.currentTimeMillis();
+		Long time = found.get(queue);
+
+		if (time != null && now - time <= EXISTS_CACHE_MILLIS) {
+			return true;
+		}
+
+		if (sfy.get(QueueInfo.class).key(queue).now() == null) {
+			found.remove(queue);
+			return false;
+		}
+
+		found.put(queue, now);
+		return true;
+	}
+}
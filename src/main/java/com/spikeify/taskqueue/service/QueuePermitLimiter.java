@@ -0,0 +1,290 @@
+package com.spikeify.taskqueue.service;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.ResultCode;
+import com.spikeify.Spikeify;
+import com.spikeify.taskqueue.TaskQueueError;
+import com.spikeify.taskqueue.entities.QueuePermits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits number of running tasks of queue across all machines (one per queue per JVM)
+ * permits are leased from cluster wide semaphore ({@link QueuePermits}) with conditional writes
+ */
+class QueuePermitLimiter {
+
+	private static final Logger log = LoggerFactory.getLogger(QueuePermitLimiter.class);
+
+	/**
+	 * number of retries when semaphore is modified by other machine
+	 */
+	private static final int LEASE_RETRIES = 10;
+
+	private final Spikeify sfy;
+
+	private final String queueName;
+
+	private final QueueInfoCounter counter;
+
+	/**
+	 * lease of task running on this machine
+	 */
+	private static class Lease {
+
+		private final QueuePermitLimiter limiter;
+
+		private final String id;
+
+		private Lease(QueuePermitLimiter permitLimiter, String leaseId) {
+
+			limiter = permitLimiter;
+			id = leaseId;
+		}
+	}
+
+	/**
+	 * lease per task id of tasks running on this machine (all queues) ... removed once task is done on this machine
+	 */
+	private static final Map<String, Lease> running = new ConcurrentHashMap<>();
+
+	/**
+	 * time permits were first refused (0 - permits are not refused)
+	 */
+	private volatile long refusedSince;
+
+	QueuePermitLimiter(Spikeify spikeify, String queue, QueueInfoCounter infoCounter) {
+
+		sfy = spikeify;
+		queueName = queue;
+		counter = infoCounter;
+	}
+
+	/**
+	 * Leases permits
+	 *
+	 * @param max         max number of permits to lease
+	 * @param maxPermits  max number of permits across all machines
+	 * @param leaseMillis time in milliseconds lease is valid
+	 * @return list of lease ids or empty list if all permits are taken
+	 */
+	List<String> acquire(int max, int maxPermits, long leaseMillis) {
+
+		for (int i = 0; i < LEASE_RETRIES; i++) {
+
+			long now = System.currentTimeMillis();
+
+			QueuePermits permits = sfy.get(QueuePermits.class).key(queueName).now();
+			boolean create = permits == null;
+
+			if (create) {
+				permits = new QueuePermits(queueName);
+			}
+
+			int expired = permits.expire(now);
+			if (expired > 0) {
+				log.info("[" + queueName + "] " + expired + " permit(s) expired.");
+			}
+
+			int count = Math.min(max, permits.available(maxPermits));
+
+			List<String> leased = new ArrayList<>();
+			for (int j = 0; j < count; j++) {
+
+				String id = UUID.randomUUID().toString();
+				permits.lease(id, now + leaseMillis);
+				leased.add(id);
+			}
+
+			// mark refusal ... so machines waiting for permits are woken up once a permit is released
+			boolean refuse = count == 0 && permits.refuse();
+
+			if (count == 0 && expired == 0 && !refuse) {
+				refused(now);
+				return leased;
+			}
+
+			if (write(permits, create)) {
+
+				if (count == 0) {
+					refused(now);
+				}
+				else {
+					granted(now);
+				}
+
+				return leased;
+			}
+		}
+
+		throw new TaskQueueError("[" + queueName + "] could not lease permits, to many collisions!");
+	}
+
+	/**
+	 * Remembers lease of running task ... so it can be released once task is done
+	 *
+	 * @param taskId  task id
+	 * @param leaseId lease id
+	 */
+	void assign(String taskId, String leaseId) {
+
+		running.put(taskId, new Lease(this, leaseId));
+	}
+
+	/**
+	 * Releases lease of task
+	 *
+	 * @param taskId task id
+	 */
+	void release(String taskId) {
+
+		done(taskId);
+	}
+
+	/**
+	 * Releases lease of task once done on this machine (if not released already)
+	 * ... also when result was not stored (claim lost or task failed by other machine)
+	 *
+	 * @param taskId task id
+	 */
+	static void done(String taskId) {
+
+		Lease lease = running.remove(taskId);
+		if (lease != null) {
+
+			List<String> list = new ArrayList<>();
+			list.add(lease.id);
+			lease.limiter.releaseLeases(list);
+		}
+	}
+
+	/**
+	 * Extends lease of task running on this machine (if any) ... task claimed in advance is started later than it was claimed
+	 *
+	 * @param taskId      task id
+	 * @param leaseMillis time in milliseconds lease is valid from now on
+	 */
+	static void renew(String taskId, long leaseMillis) {
+
+		Lease lease = running.get(taskId);
+		if (lease != null) {
+			lease.limiter.renewLease(lease.id, System.currentTimeMillis() + leaseMillis);
+		}
+	}
+
+	private void renewLease(String leaseId, long expires) {
+
+		for (int i = 0; i < LEASE_RETRIES; i++) {
+
+			QueuePermits permits = sfy.get(QueuePermits.class).key(queueName).now();
+			if (permits == null || !permits.renew(leaseId, expires)) {
+				// expired in the mean time ... permit might be taken by other machine
+				log.warn("[" + queueName + "] permit of running task expired before renewed!");
+				return;
+			}
+
+			if (write(permits, false)) {
+				return;
+			}
+		}
+
+		// lease expires earlier than task
+		log.warn("[" + queueName + "] could not renew permit, to many collisions!");
+	}
+
+	/**
+	 * Releases leases (not used or task is done)
+	 *
+	 * @param leaseIds lease ids
+	 */
+	void releaseLeases(Collection<String> leaseIds) {
+
+		if (leaseIds.size() == 0) {
+			return;
+		}
+
+		for (int i = 0; i < LEASE_RETRIES; i++) {
+
+			QueuePermits permits = sfy.get(QueuePermits.class).key(queueName).now();
+			if (permits == null) {
+				return;
+			}
+
+			boolean changed = false;
+			for (String id : leaseIds) {
+				changed = permits.release(id) || changed;
+			}
+
+			if (!changed) {
+				return;
+			}
+
+			boolean refused = permits.released();
+
+			if (write(permits, false)) {
+
+				// tasks waiting for permits can be picked up
+				if (refused) {
+					counter.wakeUp(queueName);
+				}
+
+				return;
+			}
+		}
+
+		// lease will expire
+		log.warn("[" + queueName + "] could not release permits, to many collisions!");
+	}
+
+	private boolean write(QueuePermits permits, boolean create) {
+
+		try {
+			if (create) {
+				sfy.create(permits).now();
+			}
+			else {
+				sfy.update(permits).now();
+			}
+
+			return true;
+		}
+		catch (ConcurrentModificationException e) {
+			log.debug("[" + queueName + "] permits collision!");
+			return false;
+		}
+		catch (AerospikeException e) {
+
+			if (e.getResultCode() == ResultCode.GENERATION_ERROR ||
+				e.getResultCode() == ResultCode.KEY_EXISTS_ERROR) {
+				log.debug("[" + queueName + "] permits collision!");
+				return false;
+			}
+
+			throw e;
+		}
+	}
+
+	private void refused(long now) {
+
+		if (refusedSince == 0) {
+			refusedSince = now;
+		}
+	}
+
+	private void granted(long now) {
+
+		long since = refusedSince;
+		if (since > 0) {
+			refusedSince = 0;
+			counter.countPermitWait(queueName, now - since);
+		}
+	}
+}
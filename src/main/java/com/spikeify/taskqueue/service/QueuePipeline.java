@@ -0,0 +1,87 @@
+package com.spikeify.taskqueue.service;
+
+import com.spikeify.taskqueue.entities.QueueSettings;
+import com.spikeify.taskqueue.utils.Assert;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Takes store round trips off the critical path of queue threads (one per queue per machine)
+ * results are stored by completion writer (group commit) and next tasks are claimed in background while current task is executed
+ */
+public class QueuePipeline {
+
+	private final CompletionWriter writer;
+
+	/**
+	 * claims next tasks in background (one claim per queue thread at most)
+	 */
+	private final ExecutorService claimer;
+
+	/**
+	 * @param queueService queue service
+	 * @param queueName    name of queue
+	 * @param settings     queue settings
+	 * @param threads      number of queue threads
+	 */
+	public QueuePipeline(TaskQueueService queueService, String queueName, QueueSettings settings, int threads) {
+
+		Assert.notNull(queueService, "Missing queue service!");
+		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+		Assert.notNull(settings, "Missing queue settings!");
+
+		// pipelined results are fire and forget
+		boolean acknowledge = !settings.isPipelined() && !settings.isCommitAsync();
+		writer = new CompletionWriter(queueService, queueName, settings.getCommitDelayMillis(), acknowledge, threads);
+
+		// no claims in background unless pipelined
+		claimer = settings.isPipelined() ? Executors.newCachedThreadPool(new TaskThreadFactory(queueName + "-claimer", true, false)) : null;
+	}
+
+	/**
+	 * @return true if next tasks are claimed in background
+	 */
+	public boolean isPrefetching() {
+
+		return claimer != null;
+	}
+
+	/**
+	 * @return writer storing task results in background
+	 */
+	public CompletionWriter getWriter() {
+
+		return writer;
+	}
+
+	/**
+	 * Claims next task in background
+	 *
+	 * @param next claims next task
+	 * @param <T>  claimed task
+	 * @return claimed task once available
+	 */
+	public <T> CompletableFuture<T> claim(Supplier<T> next) {
+
+		Assert.notNull(claimer, "Pipeline is not claiming tasks in background!");
+
+		return CompletableFuture.supplyAsync(next, claimer);
+	}
+
+	/**
+	 * Stores pending results and stops background threads
+	 *
+	 * @throws InterruptedException when interrupted while waiting for pending writes
+	 */
+	public void close() throws InterruptedException {
+
+		if (claimer != null) {
+			claimer.shutdown();
+		}
+
+		writer.close();
+	}
+}
@@ -0,0 +1,115 @@
+package com.spikeify.taskqueue.service;
+
+import com.spikeify.taskqueue.utils.Assert;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adapts poll interval of queue schedulers (one per queue per machine)
+ * polls fast (min interval) while tasks keep arriving, backs off exponentially up to max interval when queue is empty
+ * and keeps poll statistics so number of empty queries can be monitored
+ */
+public class QueuePoller {
+
+	private final long minInterval;
+
+	private final long maxInterval;
+
+	private final AtomicLong interval;
+
+	private final LongAdder polls = new LongAdder();
+
+	private final LongAdder emptyPolls = new LongAdder();
+
+	/**
+	 * @param minIntervalMillis min time to sleep between polls
+	 * @param maxIntervalMillis max time to sleep between polls
+	 */
+	public QueuePoller(long minIntervalMillis, long maxIntervalMillis) {
+
+		Assert.isTrue(minIntervalMillis > 0, "Min poll interval must be >= 1!");
+		Assert.isTrue(minIntervalMillis <= maxIntervalMillis, "Min poll interval must be <= max poll interval!");
+
+		minInterval = minIntervalMillis;
+		maxInterval = maxIntervalMillis;
+		interval = new AtomicLong(minInterval);
+	}
+
+	/**
+	 * Records poll outcome
+	 *
+	 * @param found true if task was found, false if queue was empty
+	 */
+	public void polled(boolean found) {
+
+		polls.increment();
+
+		if (found) {
+			interval.set(minInterval);
+			return;
+		}
+
+		emptyPolls.increment();
+
+		// double interval ... up to max
+		long current;
+		do {
+			current = interval.get();
+		}
+		while (current < maxInterval && !interval.compareAndSet(current, Math.min(maxInterval, current * 2)));
+	}
+
+	/**
+	 * @return time to sleep before next poll (current interval with jitter, so threads and machines don't poll at the same time)
+	 */
+	public long sleep() {
+
+		long current = interval.get();
+
+		// between half and full interval
+		long half = current / 2;
+		return half + ThreadLocalRandom.current().nextLong(current - half + 1);
+	}
+
+	/**
+	 * @return current poll interval in milliseconds
+	 */
+	public long getInterval() {
+
+		return interval.get();
+	}
+
+	public long getMinInterval() {
+
+		return minInterval;
+	}
+
+	public long getMaxInterval() {
+
+		return maxInterval;
+	}
+
+	/**
+	 * @return number of polls (task taken or queue found empty)
+	 */
+	public long getPolls() {
+
+		return polls.sum();
+	}
+
+	/**
+	 * @return number of polls returning no task
+	 */
+	public long getEmptyPolls() {
+
+		return emptyPolls.sum();
+	}
+
+	@Override
+	public String toString() {
+
+		return "polls: " + getPolls() + ", empty: " + getEmptyPolls() + ", interval: " + getInterval() + "ms";
+	}
+}
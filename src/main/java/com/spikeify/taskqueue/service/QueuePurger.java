@@ -22,6 +22,11 @@ public class QueuePurger implements Runnable {
 
 	private Map<TaskState, Integer> states = new HashMap<>();
 
+	/**
+	 * oldest deadline time bucket that might hold timed out tasks (-1 not known jet)
+	 */
+	private long cursor = -1;
+
 	public QueuePurger(TaskQueueService queueService, String queue, QueueSettings settings) {
 
 		queues = queueService;
@@ -49,12 +54,70 @@ public class QueuePurger implements Runnable {
 		}
 
 		// check for timed out tasks ...
+		if (cursor < 0) {
+			purgeTimedOut();
+		}
+		else {
+			purgeExpired();
+		}
+	}
+
+	/**
+	 * Lists all running tasks ... done once when started (tasks claimed before purger was running)
+	 */
+	private void purgeTimedOut() {
+
+		long current = QueueTask.getDeadlineBucket(System.currentTimeMillis());
+
 		List<QueueTask> running = queues.list(TaskState.running, queueName);
 		for (QueueTask task : running) {
 			if (task.isOlderThanSeconds(timeout + ADDITIONAL_SLACK)) {
-				log.info("Found hanged/timed out task: " + task + ", putting into failed state!");
-				queues.transition(task, TaskState.failed); // move task to failed state ... so it can be restarted
+				fail(task);
+			}
+		}
+
+		cursor = current;
+	}
+
+	/**
+	 * Reads only deadline time buckets passed since last check
+	 */
+	private void purgeExpired() {
+
+		long now = System.currentTimeMillis();
+		long current = QueueTask.getDeadlineBucket(now);
+
+		for (long bucket = cursor; bucket <= current; bucket++) {
+
+			boolean complete = true;
+
+			List<QueueTask> running = queues.listByDeadline(queueName, bucket);
+			for (QueueTask task : running) {
+
+				if (task.getDeadline() < now) {
+					complete = fail(task) && complete;
+				}
+				else {
+					complete = false;
+				}
+			}
+
+			// move past buckets with all deadlines expired and handled
+			if (complete && bucket < current && bucket == cursor) {
+				cursor = bucket + 1;
 			}
 		}
 	}
+
+	private boolean fail(QueueTask task) {
+
+		log.info("Found hanged/timed out task: " + task + ", putting into failed state!");
+		if (queues.transition(task, TaskState.failed) == null) { // move task to failed state ... so it can be restarted
+			return false;
+		}
+
+		// stop worker if running on this node (other nodes find out with next heartbeat)
+		RunningTasks.lost(task.getId());
+		return true;
+	}
 }
@@ -0,0 +1,174 @@
+package com.spikeify.taskqueue.service;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.ResultCode;
+import com.spikeify.Spikeify;
+import com.spikeify.taskqueue.TaskQueueError;
+import com.spikeify.taskqueue.entities.QueueTokens;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits task starts of queue across all machines (one per queue per JVM)
+ * tokens are leased in batches from cluster wide token bucket ({@link QueueTokens}) so not every start needs a database round trip
+ */
+class QueueRateLimiter {
+
+	private static final Logger log = LoggerFactory.getLogger(QueueRateLimiter.class);
+
+	/**
+	 * time in milliseconds leased tokens can be used (unused tokens are dropped, so rate is never exceeded by old leases)
+	 */
+	private static final long LEASE_MILLIS = 1000L;
+
+	/**
+	 * part of a second worth of tokens leased at once
+	 */
+	private static final int LEASES_PER_SECOND = 10;
+
+	/**
+	 * number of retries when token bucket is modified by other machine
+	 */
+	private static final int LEASE_RETRIES = 10;
+
+	private final Spikeify sfy;
+
+	private final String queueName;
+
+	/**
+	 * one thread at a time leases tokens ... others wait
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private int leased;
+
+	private long leaseTime;
+
+	QueueRateLimiter(Spikeify spikeify, String queue) {
+
+		sfy = spikeify;
+		queueName = queue;
+	}
+
+	/**
+	 * Takes tokens ... waits (sleeps) until at least one token is available
+	 *
+	 * @param max  max number of tokens to take
+	 * @param rate number of tokens per second
+	 * @return number of tokens taken (at least one)
+	 * @throws InterruptedException when interrupted while waiting
+	 */
+	int acquire(int max, double rate) throws InterruptedException {
+
+		lock.lockInterruptibly();
+		try {
+			while (true) {
+
+				long now = System.currentTimeMillis();
+
+				if (now - leaseTime > LEASE_MILLIS) {
+					leased = 0;
+				}
+
+				if (leased == 0) {
+
+					long wait = lease(Math.max(max, (int) Math.ceil(rate / LEASES_PER_SECOND)), rate, now);
+					if (wait > 0) {
+						// no tokens left ... sleep until next token is available
+						Thread.sleep(wait);
+						continue;
+					}
+				}
+
+				int taken = Math.min(max, leased);
+				leased = leased - taken;
+				return taken;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns unused tokens (still valid until lease expires)
+	 *
+	 * @param count number of tokens
+	 */
+	void release(int count) {
+
+		if (count <= 0) {
+			return;
+		}
+
+		lock.lock();
+		try {
+			if (System.currentTimeMillis() - leaseTime <= LEASE_MILLIS) {
+				leased = leased + count;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Leases tokens from token bucket with a conditional write
+	 *
+	 * @param batch number of tokens to lease
+	 * @param rate  number of tokens per second
+	 * @param now   current time
+	 * @return 0 if tokens were leased, time in milliseconds to wait for next token otherwise
+	 */
+	private long lease(int batch, double rate, long now) {
+
+		for (int i = 0; i < LEASE_RETRIES; i++) {
+
+			QueueTokens tokens = sfy.get(QueueTokens.class).key(queueName).now();
+
+			try {
+				if (tokens == null) {
+					tokens = new QueueTokens(queueName, rate, now);
+					int taken = tokens.take(batch);
+					sfy.create(tokens).now();
+
+					setLeased(taken, now);
+					return 0;
+				}
+
+				tokens.refill(rate, now);
+
+				int taken = tokens.take(batch);
+				if (taken == 0) {
+					return tokens.getWaitMillis(rate);
+				}
+
+				sfy.update(tokens).now();
+
+				setLeased(taken, now);
+				return 0;
+			}
+			catch (ConcurrentModificationException e) {
+				log.debug("[" + queueName + "] could not lease tokens, collision!");
+			}
+			catch (AerospikeException e) {
+
+				if (e.getResultCode() != ResultCode.GENERATION_ERROR &&
+					e.getResultCode() != ResultCode.KEY_EXISTS_ERROR) {
+					throw e;
+				}
+			}
+		}
+
+		throw new TaskQueueError("[" + queueName + "] could not lease tokens, to many collisions!");
+	}
+
+	private void setLeased(int taken, long now) {
+
+		leased = taken;
+		leaseTime = now;
+	}
+}
@@ -0,0 +1,251 @@
+package com.spikeify.taskqueue.service;
+
+import com.spikeify.taskqueue.entities.QueueInfo;
+import com.spikeify.taskqueue.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps number of queue schedulers (threads) on a single machine between min and max
+ * grows when tasks are piling up in the queue, shrinks when schedulers are idle
+ * (conditions must hold for several consecutive checks so number of threads doesn't flap)
+ * schedulers blocked by killed tasks that did not stop are replaced
+ */
+public class QueueScaler implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(QueueScaler.class);
+
+	/**
+	 * number of consecutive checks with more tasks waiting than threads before schedulers are added
+	 */
+	private static final int GROW_CHECKS = 2;
+
+	/**
+	 * number of consecutive idle checks before a scheduler is removed
+	 */
+	private static final int SHRINK_CHECKS = 6;
+
+	/**
+	 * Creates new scheduler (each scheduler must have it's own executor service)
+	 */
+	public interface SchedulerFactory {
+
+		QueueScheduler create();
+	}
+
+	private final String queueName;
+
+	private final TaskQueueManager manager;
+
+	private final ScheduledExecutorService pool;
+
+	private final SchedulerFactory factory;
+
+	private final int minThreads;
+
+	private final int maxThreads;
+
+	private final long intervalMillis;
+
+	/**
+	 * running schedulers
+	 */
+	private final Deque<QueueScheduler> schedulers = new ArrayDeque<>();
+
+	private final Map<QueueScheduler, ScheduledFuture<?>> futures = new HashMap<>();
+
+	/**
+	 * replaced stuck schedulers still occupying a pool thread (pool was grown by one for each)
+	 */
+	private final List<QueueScheduler> replaced = new ArrayList<>();
+
+	private int growChecks;
+
+	private int shrinkChecks;
+
+	public QueueScaler(String queue,
+					   TaskQueueManager queueManager,
+					   ScheduledExecutorService threadPool,
+					   SchedulerFactory schedulerFactory,
+					   int min,
+					   int max,
+					   long checkIntervalMillis) {
+
+		Assert.notNullOrEmpty(queue, "Missing queue name!");
+		Assert.notNull(queueManager, "Missing queue manager!");
+		Assert.notNull(threadPool, "Missing thread pool!");
+		Assert.notNull(schedulerFactory, "Missing scheduler factory!");
+		Assert.isTrue(min > 0 && min <= max, "Invalid number of threads: " + min + " - " + max);
+
+		queueName = queue;
+		manager = queueManager;
+		pool = threadPool;
+		factory = schedulerFactory;
+		minThreads = min;
+		maxThreads = max;
+		intervalMillis = checkIntervalMillis;
+	}
+
+	/**
+	 * Starts min number of schedulers
+	 */
+	public synchronized void start() {
+
+		while (schedulers.size() < minThreads) {
+			add();
+		}
+	}
+
+	/**
+	 * @return true if number of threads can change, false if fixed
+	 */
+	public boolean isElastic() {
+
+		return minThreads < maxThreads;
+	}
+
+	/**
+	 * @return number of running schedulers
+	 */
+	public synchronized int getThreads() {
+
+		return schedulers.size();
+	}
+
+	@Override
+	public synchronized void run() {
+
+		replaceStuck();
+
+		if (!isElastic()) {
+			return;
+		}
+
+		QueueInfo info = manager.info(queueName);
+		if (info == null) {
+			return;
+		}
+
+		long backlog = info.getQueuedTasks() + info.getInterruptedTasks();
+
+		int idle = 0;
+		for (QueueScheduler scheduler : schedulers) {
+			if (scheduler.isIdle()) {
+				idle++;
+			}
+		}
+
+		// all threads working and more than one task waiting per thread (even if backlog is slowly shrinking)
+		boolean grow = idle == 0 && backlog > schedulers.size();
+
+		// nothing waiting and some threads have nothing to do
+		boolean shrink = idle > 0 && backlog == 0;
+
+		growChecks = grow ? growChecks + 1 : 0;
+		shrinkChecks = shrink ? shrinkChecks + 1 : 0;
+
+		if (growChecks >= GROW_CHECKS && schedulers.size() < maxThreads) {
+
+			// grow by half of running threads at most
+			int add = Math.min(Math.max(1, schedulers.size() / 2), maxThreads - schedulers.size());
+			for (int i = 0; i < add; i++) {
+				add();
+			}
+
+			growChecks = 0;
+			log.info("[" + queueName + "] backlog: " + backlog + ", grown to: " + schedulers.size() + " thread(s).");
+		}
+
+		if (shrinkChecks >= SHRINK_CHECKS && schedulers.size() > minThreads) {
+
+			remove();
+
+			shrinkChecks = 0;
+			log.info("[" + queueName + "] idle, shrunk to: " + schedulers.size() + " thread(s).");
+		}
+	}
+
+	private void add() {
+
+		QueueScheduler scheduler = factory.create();
+
+		// add some delay so threads start with an offset
+		long delay = (100L * schedulers.size()) % intervalMillis;
+
+		// each scheduler occupies a pool thread ... pool grows and shrinks with schedulers
+		resize(1);
+		ScheduledFuture<?> future = pool.scheduleAtFixedRate(scheduler, delay, intervalMillis, TimeUnit.MILLISECONDS);
+
+		schedulers.push(scheduler);
+		futures.put(scheduler, future);
+	}
+
+	/**
+	 * Replaces schedulers blocked by killed tasks ... stuck scheduler exits once task finishes (if ever)
+	 */
+	private void replaceStuck() {
+
+		// blocked thread is free again ... shrink pool back
+		for (Iterator<QueueScheduler> iterator = replaced.iterator(); iterator.hasNext(); ) {
+
+			QueueScheduler scheduler = iterator.next();
+			if (!scheduler.isExecuting()) {
+
+				iterator.remove();
+				resize(-1);
+				log.info("[" + queueName + "] thread blocked by killed task released.");
+			}
+		}
+
+		List<QueueScheduler> stuck = new ArrayList<>();
+		for (QueueScheduler scheduler : schedulers) {
+			if (scheduler.isStuck()) {
+				stuck.add(scheduler);
+			}
+		}
+
+		for (QueueScheduler scheduler : stuck) {
+
+			scheduler.stop();
+			schedulers.remove(scheduler);
+			futures.remove(scheduler).cancel(false);
+
+			// stuck thread is still occupied ... thread added for replacement is removed once it exits
+			replaced.add(scheduler);
+
+			add();
+			log.warn("[" + queueName + "] thread blocked by killed task, replaced!");
+		}
+	}
+
+	private void resize(int change) {
+
+		if (pool instanceof ScheduledThreadPoolExecutor) {
+			ScheduledThreadPoolExecutor executor = (ScheduledThreadPoolExecutor) pool;
+			executor.setCorePoolSize(executor.getCorePoolSize() + change);
+		}
+	}
+
+	private void remove() {
+
+		// running task is finished ... but scheduler is not started again
+		QueueScheduler scheduler = schedulers.pop();
+		scheduler.stop();
+		futures.remove(scheduler).cancel(false);
+
+		// thread is freed once idle
+		resize(-1);
+	}
+}
@@ -8,9 +8,8 @@ import com.spikeify.taskqueue.utils.Assert;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class QueueScheduler implements Runnable {
@@ -19,145 +18,310 @@ public class QueueScheduler implements Runnable {
 
 	private final TaskExecutorService executor;
 
+	/**
+	 * interrupts or kills tasks when timed out (shared among all queues ... tasks are executed on scheduler thread)
+	 */
+	private final ScheduledExecutorService watchdog;
+
 	private final TaskContext context;
 
 	private final int taskTimeout;
 
 	private final int taskInterruptTimeout;
 
+	/**
+	 * wakes up scheduler waiting for new tasks (null - no waiting)
+	 */
+	private final QueueSignal signal;
+
+	/**
+	 * adapts time to wait for signal once queue is empty (null - no waiting)
+	 */
+	private final QueuePoller poller;
+
+	/**
+	 * set when scheduler should stop (number of queue threads is reduced)
+	 */
+	private volatile boolean stopped;
+
+	/**
+	 * true if scheduler found no tasks to execute and is waiting for new ones
+	 */
+	private volatile boolean idle;
+
+	/**
+	 * time out of currently running task (null if none)
+	 */
+	private volatile Timeout running;
+
+	/**
+	 * true while scheduler occupies a pool thread (executing or waiting for tasks)
+	 */
+	private volatile boolean executing;
+
 	public QueueScheduler(TaskExecutorService executorService,
+	                      ScheduledExecutorService timeoutWatchdog,
 	                      int timeoutInSeconds,
 	                      int interruptTimeoutSeconds,
 	                      TaskContext threadContext) {
 
+		this(executorService, timeoutWatchdog, timeoutInSeconds, interruptTimeoutSeconds, threadContext, null, null);
+	}
+
+	public QueueScheduler(TaskExecutorService executorService,
+	                      ScheduledExecutorService timeoutWatchdog,
+	                      int timeoutInSeconds,
+	                      int interruptTimeoutSeconds,
+	                      TaskContext threadContext,
+	                      QueueSignal queueSignal,
+	                      QueuePoller queuePoller) {
+
 		Assert.notNull(executorService, "Missing queue executor service!");
+		Assert.notNull(timeoutWatchdog, "Missing time out watchdog!");
 
 		executor = executorService;
+		watchdog = timeoutWatchdog;
 		taskTimeout = timeoutInSeconds;
 		taskInterruptTimeout = interruptTimeoutSeconds;
 		context = threadContext;
+		signal = queueSignal;
+		poller = queuePoller;
 	}
 
 	/**
 	 * Simple loop to execute tasks ...
-	 * if no task is available sleep for some time
+	 * if no task is available wait for signal (new tasks added) or sleep for some time (longer the longer queue is empty)
 	 * if next task is available then execute the next
 	 */
 	@Override
 	public void run() {
 
+		executing = true;
+
+		try {
+			execute();
+		}
+		finally {
+			executing = false;
+		}
+	}
+
+	private void execute() {
+
 		log.debug("Starting task execution ...");
 
 		int successCount = 0;
 		int allCount = 0;
 
-		TaskResult result;
+		boolean interrupted = false;
+		boolean woken = false;
+		long seen;
 
 		do {
-			// while there are tasks to be executed ... continue with execution
-
-			if (context.interrupted()) {
-				log.warn("Execution was interrupted from outside!");
-				break;
-			}
+			// remember signal version before queue is found empty ... so tasks added in between are not missed
+			seen = signal != null ? signal.version() : 0;
 
-			ExecutorService service = Executors.newSingleThreadExecutor();
-			TaskContext workerContext = new ExecutionContext(context);
+			TaskResult result;
 
-			WorkerThread worker = new WorkerThread(workerContext); // create execution thread
-			Future<?> future = service.submit(worker);
+			do {
+				// while there are tasks to be executed ... continue with execution
 
-			try {
-				// little trick ... trigger shutdown to await time out
-				// if time out occurs try gracefully terminating task ...
-				// if not return failed result ...
-				// task will stay in running state ... and Purger should take care of it (to put it into failed state)
-				service.shutdown();
-				if (!service.awaitTermination(taskTimeout, TimeUnit.SECONDS)) {
+				if (context.interrupted()) {
+					log.warn("Execution was interrupted from outside!");
+					executor.release();
+					interrupted = true;
+					break;
+				}
 
-					// send interrupt signal
-					workerContext.interrupt();
+				// stopped (removed or replaced) ... exit after current task, so its pool thread is freed
+				if (stopped) {
+					log.debug("Scheduler stopped ... exiting");
+					executor.release();
+					break;
+				}
 
-					service.shutdown();
-					// prolong for some time before giving up
-					if (!service.awaitTermination(taskInterruptTimeout, TimeUnit.SECONDS)) {
+				final TaskContext workerContext = new ExecutionContext(context);
 
-						// task is stuck ... kill it
-						log.warn("Failed to gracefully interrupt task, killing task instead!");
+				// if time out occurs try gracefully terminating task ...
+				// if task doesn't finish after interrupt time out ... kill it (interrupt scheduler thread executing it)
+				Timeout timeout = new Timeout(workerContext, Thread.currentThread());
+				running = timeout;
+				timeout.schedule(taskTimeout);
+
+				try {
+					// task is executed on this thread ... no additional worker thread is occupied
+					result = executor.execute(workerContext);
+				}
+				catch (Exception e) {
+					log.error("Task execution failed ...", e);
+					result = TaskResult.failed();
+				}
+				finally {
+					// task is done ... remove time out
+					timeout.done();
+					running = null;
+				}
 
-						future.cancel(true);
-						log.info("Task thread killed: canceled=" + future.isCancelled() + ", done=" + future.isDone());
-						service.shutdownNow();
+				if (result != null) {
 
-						// try to get some result ... if possible ...
-						result = worker.getResult();
+					idle = false;
 
-						if (result == null) {
-							result = TaskResult.failed();
-						}
+					// woken up and found work ... more tasks might be waiting, wake up next sleeping scheduler
+					if (woken) {
+						signal.signal();
+						woken = false;
 					}
-					else {
-						// task finished successfully ... get the result
-						result = worker.getResult();
-						future.cancel(true);
-						service.shutdownNow();
+
+					if (TaskResultState.ok.equals(result.getState())) {
+						successCount++;
 					}
+
+					allCount++; // count tasks executed
+				}
+
+				if (poller != null) {
+					poller.polled(result != null);
+				}
+
+				if (result == null) {
+					log.debug("No new tasks found ... exiting");
 				}
 				else {
-					// task finished successfully ... get the result
-					result = worker.getResult();
-					future.cancel(true);
-					service.shutdownNow();
+					log.debug("Last task result: " + result);
 				}
 			}
-			catch (InterruptedException e) {
-				log.error("Task has been timed out ...");
-				result = TaskResult.failed();
-				future.cancel(true);
-				service.shutdownNow();
-			}
+			while (result != null);
+
+			idle = true;
+		}
+		while (!interrupted && (woken = await(seen)));
 
-			if (result != null) {
+		log.debug("No new tasks found, stopping after: " + successCount + "/" + allCount + " execution(s).");
+	}
 
-				if (TaskResultState.ok.equals(result.getState())) {
-					successCount++;
-				}
+	/**
+	 * Waits for new tasks to be added to queue or for poll interval to pass
+	 *
+	 * @param seen signal version seen before queue was found empty
+	 * @return true if queue should be polled again, false if scheduler should exit (stopped or waiting is not supported)
+	 */
+	private boolean await(long seen) {
 
-				allCount++; // count tasks executed
-			}
+		if (signal == null || poller == null || stopped) {
+			return false;
+		}
 
-			if (result == null) {
-				log.debug("No new tasks found ... exiting");
-			}
-			else {
-				log.debug("Last task result: " + result);
-			}
+		try {
+			signal.await(seen, poller.sleep());
+			return !stopped;
 		}
-		while (result != null);
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
 
-		log.debug("No new tasks found, stopping after: " + successCount + "/" + allCount + " execution(s).");
+	/**
+	 * Stops scheduler once running task is finished
+	 */
+	public void stop() {
+
+		stopped = true;
+
+		if (signal != null) {
+			signal.signalAll();
+		}
+	}
+
+	/**
+	 * @return true if scheduler found no tasks to execute
+	 */
+	public boolean isIdle() {
+
+		return idle;
+	}
+
+	/**
+	 * @return true if running task was killed but did not stop (scheduler thread is blocked by task)
+	 */
+	public boolean isStuck() {
+
+		Timeout timeout = running;
+		return timeout != null && timeout.killed;
 	}
 
-	private class WorkerThread implements Runnable {
+	/**
+	 * @return true while scheduler occupies a pool thread, false once it exits (stopped scheduler is not run again)
+	 */
+	public boolean isExecuting() {
+
+		return executing;
+	}
+
+	/**
+	 * Single watchdog entry per task ... interrupts task when timed out and kills it after interrupt time out
+	 */
+	private class Timeout implements Runnable {
+
+		private final TaskContext context;
+
+		private final Thread thread;
+
+		private ScheduledFuture<?> future;
 
-		private TaskContext context;
+		private boolean interrupted;
 
-		private TaskResult result;
+		private volatile boolean killed;
 
-		public WorkerThread(TaskContext context) {
+		private boolean done;
 
-			this.context = context;
+		private Timeout(TaskContext taskContext, Thread taskThread) {
+
+			context = taskContext;
+			thread = taskThread;
 		}
 
-		public TaskResult getResult() {
+		private synchronized void schedule(int seconds) {
 
-			return result;
+			future = watchdog.schedule(this, seconds, TimeUnit.SECONDS);
 		}
 
 		@Override
-		public void run() {
+		public synchronized void run() {
+
+			if (done) {
+				return;
+			}
+
+			if (!interrupted) {
+				// send interrupt signal ... and give task some time to finish
+				interrupted = true;
+				context.interrupt();
+				schedule(taskInterruptTimeout);
+				return;
+			}
+
+			// task is stuck ... kill it
+			log.warn("Failed to gracefully interrupt task, killing task instead!");
+			killed = true;
+			thread.interrupt();
+		}
+
+		/**
+		 * Called by thread executing task when task is done
+		 */
+		private synchronized void done() {
+
+			done = true;
 
-			result = executor.execute(context);
+			if (future != null) {
+				future.cancel(false);
+			}
+
+			// clear kill signal ... thread continues with next task
+			if (killed) {
+				Thread.interrupted();
+			}
 		}
 	}
 }
@@ -0,0 +1,50 @@
+package com.spikeify.taskqueue.service;
+
+import com.spikeify.Spikeify;
+import com.spikeify.taskqueue.entities.QueueInfo;
+import com.spikeify.taskqueue.entities.QueueSettings;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Queue settings as seen by queue service ... read from queue info and cached for a short period of time
+ * (settings changes are picked up with a small delay)
+ */
+class QueueSettingsCache {
+
+	/**
+	 * time in milliseconds settings are cached
+	 */
+	private static final long CACHE_MILLIS = 10 * 1000L;
+
+	private final Spikeify sfy;
+
+	private final Map<String, QueueSettings> settings = new ConcurrentHashMap<>();
+
+	private final Map<String, Long> loaded = new ConcurrentHashMap<>();
+
+	QueueSettingsCache(Spikeify spikeify) {
+
+		sfy = spikeify;
+	}
+
+	/**
+	 * @param queue name of queue
+	 * @return queue settings or default settings if queue is not registered
+	 */
+	QueueSettings get(String queue) {
+
+		long now = System.currentTimeMillis();
+		Long time = loaded.get(queue);
+
+		if (time == null || now - time > CACHE_MILLIS) {
+
+			QueueInfo info = sfy.get(QueueInfo.class).key(queue).now();
+			settings.put(queue, info != null ? info.getSettings() : new QueueSettings());
+			loaded.put(queue, now);
+		}
+
+		return settings.get(queue);
+	}
+}
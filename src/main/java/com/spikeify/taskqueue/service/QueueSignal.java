@@ -0,0 +1,129 @@
+package com.spikeify.taskqueue.service;
+
+import com.spikeify.taskqueue.utils.Assert;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wakes up sleeping queue schedulers when new tasks are available (one per queue per JVM)
+ * signaled when task is added to queue on this machine or when queue version change is detected (task added on other machine)
+ */
+public class QueueSignal {
+
+	private static final Map<String, QueueSignal> signals = new ConcurrentHashMap<>();
+
+	/**
+	 * incremented on each signal ... so signals sent while not waiting are not lost
+	 */
+	private volatile long version;
+
+	/**
+	 * lock and condition instead of monitor ... waiting virtual threads are not pinned to their carrier threads
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition changed = lock.newCondition();
+
+	/**
+	 * @param queueName name of queue
+	 * @return signal of queue
+	 */
+	public static QueueSignal get(String queueName) {
+
+		Assert.notNullOrEmpty(queueName, "Missing queue name!");
+
+		QueueSignal signal = signals.get(queueName);
+		if (signal == null) {
+			signals.putIfAbsent(queueName, new QueueSignal());
+			signal = signals.get(queueName);
+		}
+
+		return signal;
+	}
+
+	/**
+	 * @return current signal version (to be used when waiting)
+	 */
+	public long version() {
+
+		return version;
+	}
+
+	/**
+	 * Wakes up one waiting scheduler (single new task)
+	 */
+	public void signal() {
+
+		signal(1);
+	}
+
+	/**
+	 * Wakes up as many waiting schedulers as there are new tasks
+	 * (scheduler finding a task after woken up wakes up next one ... in case more tasks are waiting)
+	 *
+	 * @param count number of new tasks
+	 */
+	public void signal(int count) {
+
+		lock.lock();
+		try {
+			version++;
+
+			for (int i = 0; i < count; i++) {
+				changed.signal();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wakes up all waiting schedulers (queue is stopped)
+	 */
+	public void signalAll() {
+
+		lock.lock();
+		try {
+			version++;
+			changed.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits for signal
+	 *
+	 * @param seen          version seen before queue was found empty
+	 * @param timeoutMillis max time to wait
+	 * @return true if signaled (since given version), false if timed out
+	 * @throws InterruptedException when waiting thread is interrupted
+	 */
+	public boolean await(long seen, long timeoutMillis) throws InterruptedException {
+
+		long left = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+		lock.lock();
+		try {
+			while (version == seen) {
+
+				if (left <= 0) {
+					return false;
+				}
+
+				left = changed.awaitNanos(left);
+			}
+
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+}
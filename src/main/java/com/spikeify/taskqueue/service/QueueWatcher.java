@@ -0,0 +1,52 @@
+package com.spikeify.taskqueue.service;
+
+import com.spikeify.taskqueue.entities.QueueInfo;
+import com.spikeify.taskqueue.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches queue version (single record read) and wakes up sleeping schedulers when version changes
+ * ... tasks added on other machines are picked up without waiting for the next scheduled check
+ */
+class QueueWatcher implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(QueueWatcher.class);
+
+	private final TaskQueueManager manager;
+
+	private final String queueName;
+
+	private long version = -1;
+
+	QueueWatcher(TaskQueueManager queueManager, String queue) {
+
+		Assert.notNull(queueManager, "Missing queue manager!");
+		Assert.notNullOrEmpty(queue, "Missing queue name!");
+
+		manager = queueManager;
+		queueName = queue;
+	}
+
+	@Override
+	public void run() {
+
+		try {
+			QueueInfo info = manager.info(queueName);
+			if (info == null) {
+				return;
+			}
+
+			if (version >= 0 && info.getVersion() != version) {
+				log.debug("[" + queueName + "] version changed: " + version + " -> " + info.getVersion());
+				QueueSignal.get(queueName).signal();
+			}
+
+			version = info.getVersion();
+		}
+		catch (Exception e) {
+			// exception here should not stop watching the queue
+			log.error("[" + queueName + "] failed to check queue version!", e);
+		}
+	}
+}
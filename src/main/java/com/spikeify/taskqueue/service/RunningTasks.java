@@ -0,0 +1,155 @@
+package com.spikeify.taskqueue.service;
+
+import com.aerospike.client.Key;
+import com.spikeify.Spikeify;
+import com.spikeify.taskqueue.TaskContext;
+import com.spikeify.taskqueue.entities.QueueTask;
+import com.spikeify.taskqueue.utils.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tasks executed on this node (JVM) with fencing token of their claim
+ * workers of tasks claimed again by other node (claim lost) are told to stop via {@link TaskContext#interrupted()}
+ */
+class RunningTasks {
+
+	private static final Logger log = LoggerFactory.getLogger(RunningTasks.class);
+
+	/**
+	 * in flight task with context it is executed in
+	 */
+	private static class Running {
+
+		private final String queue;
+
+		private final int fence;
+
+		private final TaskContext context;
+
+		private Running(String queueName, int fenceToken, TaskContext taskContext) {
+
+			queue = queueName;
+			fence = fenceToken;
+			context = taskContext;
+		}
+	}
+
+	private static final Map<String, Running> running = new ConcurrentHashMap<>();
+
+	private RunningTasks() {
+		// static registry
+	}
+
+	/**
+	 * Registers claimed task when execution starts
+	 *
+	 * @param task    claimed task (in running state)
+	 * @param context context task is executed in
+	 */
+	static void started(QueueTask task, TaskContext context) {
+
+		Assert.notNull(task, "Missing task!");
+
+		if (context != null) {
+			running.put(task.getId(), new Running(task.getQueue(), task.getFence(), context));
+		}
+	}
+
+	/**
+	 * Removes task when execution is done ... running task permit (if any) is released
+	 * task claimed and started again on this node in the mean time (newer fencing token) is left alone
+	 *
+	 * @param taskId task id
+	 * @param fence  fencing token of claim execution was started with
+	 */
+	static void done(String taskId, int fence) {
+
+		if (taskId == null) {
+			return;
+		}
+
+		Running task = running.get(taskId);
+		if (task != null) {
+
+			if (task.fence != fence) {
+				return;
+			}
+
+			running.remove(taskId, task);
+		}
+
+		QueuePermitLimiter.done(taskId);
+	}
+
+	/**
+	 * Interrupts task if executed on this node (task was put out of running state by purger)
+	 *
+	 * @param taskId task id
+	 */
+	static void lost(String taskId) {
+
+		Running task = running.get(taskId);
+		if (task != null) {
+			log.warn("[" + task.queue + "] claim of task: " + taskId + " lost, interrupting!");
+			task.context.interrupt();
+		}
+	}
+
+	/**
+	 * @return ids of tasks executed on this node
+	 */
+	static List<String> ids() {
+
+		return new ArrayList<>(running.keySet());
+	}
+
+	/**
+	 * Reads all tasks executed on this node (single batch read) and interrupts those with lost claim
+	 *
+	 * @param sfy    database connection
+	 * @param nodeId id of this node
+	 * @return number of interrupted tasks
+	 */
+	static int check(Spikeify sfy, String nodeId) {
+
+		Map<String, Running> snapshot = new HashMap<>(running);
+		if (snapshot.isEmpty()) {
+			return 0;
+		}
+
+		Map<String, QueueTask> stored = new HashMap<>();
+		Map<Key, QueueTask> found = sfy.get(QueueTask.class).keys(snapshot.keySet().toArray(new String[snapshot.size()])).now();
+		for (QueueTask task : found.values()) {
+			if (task != null) {
+				stored.put(task.getId(), task);
+			}
+		}
+
+		int count = 0;
+		for (Map.Entry<String, Running> entry : snapshot.entrySet()) {
+
+			Running task = entry.getValue();
+
+			// done (or started again) in the mean time
+			if (running.get(entry.getKey()) != task) {
+				continue;
+			}
+
+			QueueTask current = stored.get(entry.getKey());
+			if (current == null || !current.isClaimedBy(nodeId, task.fence)) {
+				log.warn("[" + task.queue + "] claim of task: " + entry.getKey() + " lost, interrupting!");
+				task.context.interrupt();
+				count++;
+			}
+		}
+
+		return count;
+	}
+}
@@ -24,4 +24,9 @@ public interface TaskExecutorService {
 	 * @return true if job is running, false if not
 	 */
 	boolean isRunning();
+
+	/**
+	 * Releases jobs claimed but not yet executed back to the queue (when execution is interrupted)
+	 */
+	void release();
 }
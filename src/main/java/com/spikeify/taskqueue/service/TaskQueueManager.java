@@ -2,6 +2,7 @@ package com.spikeify.taskqueue.service;
 
 import com.spikeify.taskqueue.entities.QueueInfo;
 import com.spikeify.taskqueue.entities.QueueSettings;
+import com.spikeify.taskqueue.entities.WorkerNode;
 
 import java.util.List;
 
@@ -66,6 +67,14 @@ public interface TaskQueueManager {
 	 */
 	TaskExecutorService getExecutor(String queueName);
 
+	/**
+	 * Returns instance of task executor service to be used when executing jobs
+	 * @param queueName name of queue
+	 * @param settings queue settings
+	 * @return executor service
+	 */
+	TaskExecutorService getExecutor(String queueName, QueueSettings settings);
+
 	/**
 	 * Stops queues - stops all running tasks/threads (on given JVM)
 	 *
@@ -74,12 +83,35 @@ public interface TaskQueueManager {
 	 */
 	void stop(String... queueNames) throws InterruptedException;
 
+	/**
+	 * Stops all queues started by this manager (on given JVM) and releases its resources
+	 * watchdog and heartbeat shared by all managers of JVM are stopped with the last manager
+	 *
+	 * @throws InterruptedException when interrupted
+	 */
+	void shutdown() throws InterruptedException;
+
 	/**
 	 * @param queueName name of queue
 	 * @return true if queue is started and active (running), false if not
 	 */
 	boolean isRunning(String queueName);
 
+	/**
+	 * Poll statistics of queue running on this machine
+	 *
+	 * @param queueName name of queue
+	 * @return poll interval and number of (empty) polls or null if queue is not running on this machine
+	 */
+	QueuePoller getPoller(String queueName);
+
+	/**
+	 * Lists nodes (machines / JVMs) running queues in the cluster with queues, threads and tasks executed on each
+	 *
+	 * @return live nodes (sending heartbeats)
+	 */
+	List<WorkerNode> nodes();
+
 	/**
 	 * Enables queue
 	 *
@@ -2,6 +2,7 @@ package com.spikeify.taskqueue.service;
 
 import com.spikeify.taskqueue.Job;
 import com.spikeify.taskqueue.entities.QueueTask;
+import com.spikeify.taskqueue.entities.TaskPriority;
 import com.spikeify.taskqueue.entities.TaskState;
 import com.spikeify.taskqueue.entities.TaskStatistics;
 
@@ -21,6 +22,60 @@ public interface TaskQueueService {
 	 */
 	QueueTask add(Job job, String queueName);
 
+	/**
+	 * Adds job to queue with given priority ... jobs with higher priority are executed first
+	 *
+	 * @param job       to be executed
+	 * @param queueName name of queue
+	 * @param priority  of job within queue
+	 * @return added job
+	 */
+	QueueTask add(Job job, String queueName, TaskPriority priority);
+
+	/**
+	 * Adds job to queue to be executed once given time has passed (job is not taken from queue before)
+	 *
+	 * @param job       to be executed
+	 * @param queueName name of queue
+	 * @param runAt     time stamp in milliseconds job should not be executed before (0 or time in past - execute immediately)
+	 * @return added job
+	 */
+	QueueTask add(Job job, String queueName, long runAt);
+
+	/**
+	 * Adds job to queue with given priority to be executed once given time has passed
+	 *
+	 * @param job       to be executed
+	 * @param queueName name of queue
+	 * @param priority  of job within queue
+	 * @param runAt     time stamp in milliseconds job should not be executed before (0 or time in past - execute immediately)
+	 * @return added job
+	 */
+	QueueTask add(Job job, String queueName, TaskPriority priority, long runAt);
+
+	/**
+	 * Adds job to queue unless job with same deduplication key is already queued or running (within deduplication window)
+	 *
+	 * @param job       to be executed
+	 * @param queueName name of queue
+	 * @param dedupKey  deduplication key
+	 * @return added job or already present job with same deduplication key
+	 */
+	QueueTask add(Job job, String queueName, String dedupKey);
+
+	/**
+	 * Adds job to queue with given priority to be executed once given time has passed
+	 * unless job with same deduplication key is already queued or running (within deduplication window)
+	 *
+	 * @param job       to be executed
+	 * @param queueName name of queue
+	 * @param priority  of job within queue
+	 * @param runAt     time stamp in milliseconds job should not be executed before (0 or time in past - execute immediately)
+	 * @param dedupKey  deduplication key (null - no deduplication)
+	 * @return added job or already present job with same deduplication key
+	 */
+	QueueTask add(Job job, String queueName, TaskPriority priority, long runAt, String dedupKey);
+
 	/**
 	 * Gets next job to be executed (put in running state)
 	 *
@@ -30,7 +85,35 @@ public interface TaskQueueService {
 	QueueTask next(String queueName);
 
 	/**
-	 * Lists all tasks from queue in given state
+	 * Gets up to given number of next jobs to be executed (all put in running state)
+	 *
+	 * @param queueName name of queue
+	 * @param maxTasks  max number of jobs to be returned
+	 * @return list of jobs to be executed or empty list if no job found
+	 */
+	List<QueueTask> next(String queueName, int maxTasks);
+
+	/**
+	 * Renews claim of running task when it is executed ... tasks claimed in advance (prefetched) get full time out from now
+	 * claim is only stored again if task waited longer than deadline slack
+	 *
+	 * @param task running task claimed by this node
+	 * @return task with renewed claim (or given task if not renewed), null if claim was lost in the mean time
+	 */
+	QueueTask renew(QueueTask task);
+
+	/**
+	 * Re-queues tasks from dead letters (failed to many times) ... once cause of failure is fixed
+	 * should be called repeatedly until 0 is returned to re-queue all dead tasks
+	 *
+	 * @param queueName name of queue
+	 * @param maxTasks  max number of tasks to re-queue
+	 * @return number of re-queued tasks
+	 */
+	int redrive(String queueName, int maxTasks);
+
+	/**
+	 * Lists all tasks from queue in given state (tasks waiting for their run at time are not listed)
 	 *
 	 * @param state     job is in
 	 * @param queueName name of queue
@@ -38,9 +121,26 @@ public interface TaskQueueService {
 	 */
 	List<QueueTask> list(TaskState state, String queueName);
 
+	/**
+	 * Lists all tasks from queue waiting for their run at time (delayed tasks and failed tasks waiting for retry)
+	 *
+	 * @param queueName name of queue
+	 * @return list of delayed tasks
+	 */
+	List<QueueTask> listDelayed(String queueName);
+
+	/**
+	 * Lists running tasks from queue with deadline in given time bucket
+	 *
+	 * @param queueName      name of queue
+	 * @param deadlineBucket deadline time bucket (see {@link QueueTask#getDeadlineBucket(long)})
+	 * @return list of running tasks with deadline in time bucket
+	 */
+	List<QueueTask> listByDeadline(String queueName, long deadlineBucket);
+
 	/**
 	 * Transitions job from current state to new state
-	 * This is done in transaction so only one thread can change the state (this is then the worker thread for this job)
+	 * This is done with a single conditional write (generation check) so only one thread can change the state (this is then the worker thread for this job)
 	 *
 	 * @param task  to transition state
 	 * @param state to transition to
@@ -48,6 +148,40 @@ public interface TaskQueueService {
 	 */
 	QueueTask transition(QueueTask task, TaskState state);
 
+	/**
+	 * Transitions job from current state to new state
+	 * queue info counter changes are stored with the transition or only collected and stored with next {@link #commit(String)}
+	 *
+	 * @param task           to transition state
+	 * @param state          to transition to
+	 * @param commitCounters true to store queue info counter changes, false to collect them only
+	 * @return updated task if transition successed, null if job could not be transitioned
+	 */
+	QueueTask transition(QueueTask task, TaskState state, boolean commitCounters);
+
+	/**
+	 * Stores collected queue info counter changes of queue with a single command
+	 *
+	 * @param queueName name of queue
+	 */
+	void commit(String queueName);
+
+	/**
+	 * Stores pending queue info counter changes and stops storing them in background (changes are stored immediately from then on)
+	 */
+	void close();
+
+	/**
+	 * Transitions jobs from current state to new states (group commit)
+	 * each job is transitioned with a single conditional write, queue info counters are updated once for all jobs
+	 * (writes are issued one after another, call concurrently with separate lists to store more jobs in parallel)
+	 *
+	 * @param tasks  to transition state
+	 * @param states to transition to (one per task)
+	 * @return list of updated tasks in same order as given (null for jobs that could not be transitioned)
+	 */
+	List<QueueTask> transition(List<QueueTask> tasks, List<TaskState> states);
+
 	/**
 	 * Removes tasks from queue
 	 *
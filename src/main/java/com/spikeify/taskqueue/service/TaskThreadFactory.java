@@ -0,0 +1,89 @@
+package com.spikeify.taskqueue.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named platform threads or virtual threads (if running on Java 21+)
+ * virtual threads are looked up by reflection so library can still be compiled and run on Java 8
+ */
+public class TaskThreadFactory implements ThreadFactory {
+
+	private static final Logger log = LoggerFactory.getLogger(TaskThreadFactory.class);
+
+	/**
+	 * virtual thread factory or null if not supported by JVM
+	 */
+	private static final ThreadFactory VIRTUAL = getVirtualThreadFactory();
+
+	private final String prefix;
+
+	private final boolean daemon;
+
+	private final boolean virtual;
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * @param namePrefix     thread name prefix
+	 * @param daemonThreads  true to create daemon threads (platform threads only, virtual threads are always daemon threads)
+	 * @param virtualThreads true to create virtual threads (falls back to platform threads if not supported)
+	 */
+	public TaskThreadFactory(String namePrefix, boolean daemonThreads, boolean virtualThreads) {
+
+		prefix = namePrefix;
+		daemon = daemonThreads;
+		virtual = virtualThreads && VIRTUAL != null;
+
+		if (virtualThreads && VIRTUAL == null) {
+			log.warn("Virtual threads are not supported (Java 21+ is needed), using platform threads instead!");
+		}
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+
+		Thread thread = virtual ? VIRTUAL.newThread(runnable) : new Thread(runnable);
+		thread.setName(prefix + "-" + count.incrementAndGet());
+
+		if (!virtual) {
+			thread.setDaemon(daemon);
+		}
+
+		return thread;
+	}
+
+	/**
+	 * @return true if threads created are virtual threads, false if platform threads
+	 */
+	public boolean isVirtual() {
+
+		return virtual;
+	}
+
+	/**
+	 * @return true if JVM supports virtual threads
+	 */
+	public static boolean isVirtualSupported() {
+
+		return VIRTUAL != null;
+	}
+
+	private static ThreadFactory getVirtualThreadFactory() {
+
+		try {
+			// Thread.ofVirtual().factory()
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		}
+		catch (Exception e) {
+			// not supported (Java < 21 or preview feature not enabled)
+			return null;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.spikeify.taskqueue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Async test job completing after given time without occupying a thread
+ */
+public class AsyncTestTask implements AsyncJob {
+
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+	private long duration;
+
+	protected AsyncTestTask() {
+		// for Jackson
+	}
+
+	public AsyncTestTask(long executeInMilliseconds) {
+		duration = executeInMilliseconds;
+	}
+
+	public long getDuration() {
+
+		return duration;
+	}
+
+	public void setDuration(long value) {
+		duration = value;
+	}
+
+	@Override
+	public CompletableFuture<TaskResult> executeAsync(TaskContext context) {
+
+		final CompletableFuture<TaskResult> future = new CompletableFuture<>();
+
+		timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+
+				future.complete(TaskResult.ok());
+			}
+		}, duration, TimeUnit.MILLISECONDS);
+
+		return future;
+	}
+}
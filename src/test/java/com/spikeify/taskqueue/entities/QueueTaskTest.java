@@ -13,6 +13,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class QueueTaskTest {
@@ -57,6 +58,30 @@ public class QueueTaskTest {
 		assertEquals(0, testJob.getProperty());
 	}
 
+	@Test
+	public void jobTypeIsCached() throws Exception {
+
+		String QUEUE = "jobTypeIsCached";
+
+		QueueTask first = new QueueTask(new TestTask(1), QUEUE);
+		QueueTask second = new QueueTask(new TestTask(2), QUEUE);
+
+		// same resolved class, reader and writer for both
+		JobType type = JobType.get(first.className, getClass().getClassLoader());
+		assertTrue(type == JobType.get(second.className, getClass().getClassLoader()));
+		assertEquals(TestTask.class, type.getType());
+
+		// other class loader resolving same class ... same type
+		ClassLoader other = new ClassLoader(getClass().getClassLoader()) {};
+		JobType otherType = JobType.get(first.className, other);
+		assertTrue(otherType == type);
+		assertTrue(otherType == JobType.get(second.className, other));
+		assertTrue(type == JobType.get(TestTask.class));
+
+		assertEquals(1, ((TestTask) first.getJob()).getProperty());
+		assertEquals(2, ((TestTask) second.getJob()).getProperty());
+	}
+
 	@Test(expected = TaskQueueError.class)
 	public void invalidClassType() {
 
@@ -141,6 +166,129 @@ public class QueueTaskTest {
 		assertTrue(task.isOlderThan(10));
 	}
 
+	@Test
+	public void testOpenFilter() {
+
+		String QUEUE = "testOpenFilter";
+
+		TestTask job = new TestTask(0);
+		QueueTask task = new QueueTask(job, QUEUE);
+
+		long bucket = QueueTask.getOpenBucket(task.updateTime);
+		assertEquals(QUEUE + "::OPEN::" + bucket, task.openFilter);
+
+		// locked tasks are not part of any time bucket
+		task.setState(TaskState.running, "lock");
+		assertNull(task.openFilter);
+
+		// failed task can be retried ... is open again
+		task.setState(TaskState.failed, "lock");
+		assertEquals(QueueTask.getOpenFilter(QUEUE, QueueTask.getOpenBucket(task.updateTime)), task.openFilter);
+	}
+
+	@Test
+	public void testPriorityOpenFilter() {
+
+		String QUEUE = "testPriorityOpenFilter";
+
+		QueueTask task = new QueueTask(new TestTask(0), QUEUE, TaskPriority.high);
+		assertEquals(TaskPriority.high, task.getPriority());
+
+		long bucket = QueueTask.getOpenBucket(task.updateTime);
+		assertEquals(QUEUE + "::OPEN::high::" + bucket, task.openFilter);
+
+		// normal priority has same filter as tasks without priority
+		task = new QueueTask(new TestTask(0), QUEUE);
+		assertEquals(TaskPriority.normal, task.getPriority());
+		assertEquals(QueueTask.getOpenFilter(QUEUE, QueueTask.getOpenBucket(task.updateTime)), task.openFilter);
+	}
+
+	@Test
+	public void testDelayFilter() {
+
+		String QUEUE = "testDelayFilter";
+
+		long runAt = System.currentTimeMillis() + 60 * 60 * 1000L;
+		QueueTask task = new QueueTask(new TestTask(0), QUEUE, TaskPriority.normal, runAt);
+
+		// delayed task is not open
+		assertTrue(task.isDelayed());
+		assertNull(task.openFilter);
+		assertEquals(QUEUE + "::DELAYED::" + QueueTask.getDelayBucket(runAt), task.delayFilter);
+		assertFalse(QueueTask.getLockedFilter(QUEUE, false).equals(task.lockFilter));
+
+		task.promote();
+
+		assertFalse(task.isDelayed());
+		assertNull(task.delayFilter);
+		assertEquals(QueueTask.getLockedFilter(QUEUE, false), task.lockFilter);
+		assertEquals(QueueTask.getOpenFilter(QUEUE, QueueTask.getOpenBucket(task.updateTime)), task.openFilter);
+
+		// run at time in past ... not delayed
+		task = new QueueTask(new TestTask(0), QUEUE, TaskPriority.normal, System.currentTimeMillis() - 1000);
+		assertFalse(task.isDelayed());
+		assertNull(task.delayFilter);
+	}
+
+	@Test
+	public void testDeadlineFilter() {
+
+		String QUEUE = "testDeadlineFilter";
+
+		QueueTask task = new QueueTask(new TestTask(0), QUEUE);
+		assertNull(task.deadlineFilter);
+
+		task.setState(TaskState.running, "1");
+		long deadline = System.currentTimeMillis() + 30 * 1000L;
+		task.claim("node", deadline);
+
+		assertEquals("node", task.getOwner());
+		assertEquals(deadline, task.getDeadline());
+		assertEquals(QUEUE + "::DEADLINE::" + QueueTask.getDeadlineBucket(deadline), task.deadlineFilter);
+
+		// done running ... released
+		task.setState(TaskState.finished, "1");
+		assertNull(task.getOwner());
+		assertNull(task.deadlineFilter);
+	}
+
+	@Test
+	public void testFencingToken() {
+
+		QueueTask task = new QueueTask(new TestTask(0), "testFencingToken");
+
+		task.setState(TaskState.running, "1");
+		task.claim("node", System.currentTimeMillis());
+		int fence = task.getFence();
+
+		assertTrue(task.isClaimedBy("node", fence));
+		assertFalse(task.isClaimedBy("other", fence));
+
+		// timed out and claimed again ... first claim is lost
+		task.setState(TaskState.failed, "2");
+		assertFalse(task.isClaimedBy("node", fence));
+
+		task.setState(TaskState.running, "3");
+		task.claim("other", System.currentTimeMillis());
+
+		assertTrue(task.getFence() > fence);
+		assertFalse(task.isClaimedBy("node", fence));
+		assertTrue(task.isClaimedBy("other", task.getFence()));
+
+		// re-queued from dead letters ... run count starts over, token does not
+		int second = task.getFence();
+		task.setState(TaskState.failed, "4");
+		task.setState(TaskState.dead, "5");
+		task.setState(TaskState.queued, "6");
+		task.setState(TaskState.running, "7");
+		task.claim("node", System.currentTimeMillis());
+
+		assertEquals(1, task.getRunCount());
+		assertTrue(task.getFence() > second);
+		assertFalse(task.isClaimedBy("node", fence));
+		assertFalse(task.isClaimedBy("node", second));
+	}
+
 	@Test
 	public void testIsOlderThanSeconds() {
 
@@ -1,6 +1,7 @@
 package com.spikeify.taskqueue.service;
 
 import com.spikeify.Spikeify;
+import com.spikeify.taskqueue.AsyncTestTask;
 import com.spikeify.taskqueue.LongRunningTask;
 import com.spikeify.taskqueue.TestHelper;
 import com.spikeify.taskqueue.TestTask;
@@ -36,8 +37,9 @@ public class DefaultTaskQueueManagerTest {
 	}
 
 	@After
-	public void tearDown() {
+	public void tearDown() throws InterruptedException {
 
+		manager.shutdown();
 	//	spikeify.truncateNamespace("test");
 	}
 
@@ -127,6 +129,181 @@ public class DefaultTaskQueueManagerTest {
 		assertEquals(4, list.size());
 	}
 
+	@Test
+	public void testWakeUpOnNewTask() throws Exception {
+
+		String QUEUE = "wakeUp";
+		manager.register(QUEUE, false); // create queue
+
+		manager.start(QUEUE);
+
+		// let scheduler find empty queue and go to sleep
+		Thread.sleep(1000);
+
+		queues.add(new TestTask(1), QUEUE);
+
+		// sleeping scheduler is woken up ... task is executed long before next scheduled check (10s)
+		Thread.sleep(1000);
+
+		List<QueueTask> list = queues.list(TaskState.finished, QUEUE);
+		assertEquals(1, list.size());
+
+		manager.stop(QUEUE);
+	}
+
+	@Test
+	public void testPollBackoff() throws Exception {
+
+		String QUEUE = "pollBackoff";
+		manager.register(QUEUE, false); // create queue
+
+		QueueInfo info = manager.info(QUEUE);
+		QueueSettings settings = info.getSettings();
+		settings.setQueueMinSleepTimeMillis(100);
+		settings.setQueueWatchTimeMillis(0);
+		manager.set(QUEUE, settings);
+
+		manager.start(QUEUE);
+
+		// empty queue ... poll interval should back off
+		Thread.sleep(3000);
+
+		QueuePoller poller = manager.getPoller(QUEUE);
+		assertNotNull(poller);
+		assertTrue(poller.getEmptyPolls() > 1);
+		assertTrue(poller.getInterval() > 100);
+		assertTrue(poller.getInterval() <= 10 * 1000);
+
+		for (int i = 0; i < 5; i++) {
+			queues.add(new TestTask(i), QUEUE);
+		}
+
+		Thread.sleep(1000);
+
+		List<QueueTask> list = queues.list(TaskState.finished, QUEUE);
+		assertEquals(5, list.size());
+		assertTrue(poller.getPolls() - poller.getEmptyPolls() >= 5);
+
+		manager.stop(QUEUE);
+		assertNull(manager.getPoller(QUEUE));
+	}
+
+	@Test
+	public void testNodes() throws Exception {
+
+		String QUEUE = "testNodes";
+		manager.register(QUEUE, false); // create queue
+
+		for (int i = 0; i < 3; i++) {
+			queues.add(new LongRunningTask("Long: 10s", 10000), QUEUE);
+		}
+
+		manager.start(QUEUE);
+
+		// wait for next heartbeat
+		Thread.sleep((NodeRegistry.HEARTBEAT_SECONDS + 1) * 1000L);
+
+		// single node per JVM ... with queues of all managers
+		List<WorkerNode> nodes = manager.nodes();
+		assertEquals(1, nodes.size());
+
+		WorkerNode node = nodes.get(0);
+		assertEquals(NodeRegistry.getLocalId(), node.getId());
+		assertTrue(node.getQueues().contains(QUEUE));
+		assertTrue(node.getThreads(QUEUE) > 0);
+		assertEquals(Math.min(3, node.getThreads(QUEUE)), node.getRunning().size());
+
+		manager.stop(QUEUE);
+	}
+
+	@Test
+	public void testAsyncJobs() throws Exception {
+
+		String QUEUE = "testAsyncJobs";
+		manager.register(QUEUE, false); // create queue
+
+		QueueInfo info = manager.info(QUEUE);
+		QueueSettings settings = info.getSettings();
+		settings.setMaxThreads(1);
+		settings.setMaxAsyncJobs(10);
+		manager.set(QUEUE, settings);
+
+		for (int i = 0; i < 10; i++) {
+			queues.add(new AsyncTestTask(2000), QUEUE);
+		}
+
+		manager.start(QUEUE);
+
+		// single thread ... all jobs are in flight at the same time (20 seconds if executed one after another)
+		Thread.sleep(5000);
+
+		List<QueueTask> list = queues.list(TaskState.finished, QUEUE);
+		assertEquals(10, list.size());
+
+		manager.stop(QUEUE);
+	}
+
+	@Test
+	public void testPipelined() throws Exception {
+
+		String QUEUE = "testPipelined";
+		manager.register(QUEUE, false); // create queue
+
+		QueueInfo info = manager.info(QUEUE);
+		QueueSettings settings = info.getSettings();
+		settings.setMaxThreads(2);
+		settings.setPipelined(true);
+		manager.set(QUEUE, settings);
+
+		for (int i = 0; i < 20; i++) {
+			queues.add(new TestTask(i), QUEUE);
+		}
+
+		manager.start(QUEUE);
+
+		Thread.sleep(3000);
+
+		// stop stores pending results
+		manager.stop(QUEUE);
+
+		List<QueueTask> list = queues.list(TaskState.finished, QUEUE);
+		assertEquals(20, list.size());
+
+		list = queues.list(TaskState.running, QUEUE);
+		assertEquals(0, list.size());
+	}
+
+	@Test
+	public void testGroupCommit() throws Exception {
+
+		String QUEUE = "testGroupCommit";
+		manager.register(QUEUE, false); // create queue
+
+		QueueInfo info = manager.info(QUEUE);
+		QueueSettings settings = info.getSettings();
+		settings.setMaxThreads(4);
+		settings.setCommitDelayMillis(20);
+		manager.set(QUEUE, settings);
+
+		for (int i = 0; i < 40; i++) {
+			queues.add(new TestTask(i), QUEUE);
+		}
+
+		manager.start(QUEUE);
+
+		Thread.sleep(3000);
+
+		// results are acknowledged ... all stored
+		List<QueueTask> list = queues.list(TaskState.finished, QUEUE);
+		assertEquals(40, list.size());
+
+		info = manager.info(QUEUE);
+		assertEquals(40, info.getFinishedTasks());
+		assertEquals(0, info.getRunningTasks());
+
+		manager.stop(QUEUE);
+	}
+
 	@Test
 	public void testStop() throws Exception {
 
@@ -243,6 +420,41 @@ public class DefaultTaskQueueManagerTest {
 		assertEquals(1, list.size());
 	}
 
+	@Test
+	public void killedTaskDoesNotBlockQueue() throws InterruptedException {
+
+		String QUEUE = "killedTaskDoesNotBlockQueue";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		TaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+		manager.register(QUEUE, false);
+
+		service.add(new TimeoutTask(true), QUEUE);
+
+		QueueInfo info = manager.info(QUEUE);
+		QueueSettings settings = info.getSettings();
+		settings.setMaxThreads(1);
+		settings.setTaskTimeoutSeconds(2);
+		settings.setTaskInterruptTimeoutSeconds(1);
+		settings.setQueueMaxSleepTimeSeconds(1);
+
+		manager.set(QUEUE, settings);
+		manager.start(QUEUE);
+
+		Thread.sleep(1000); // task ignoring interrupt is running on the only thread
+
+		service.add(new TestTask(1), QUEUE);
+
+		Thread.sleep(10 * 1000); // killed task is still running ... thread should be replaced
+
+		List<QueueTask> list = queues.list(TaskState.finished, QUEUE);
+		assertEquals(1, list.size());
+
+		list = queues.list(TaskState.running, QUEUE);
+		assertEquals(1, list.size());
+
+		manager.stop(QUEUE);
+	}
+
 	@Test
 	public void interruptTimedOutTask() throws InterruptedException {
 
@@ -424,6 +636,40 @@ public class DefaultTaskQueueManagerTest {
 		assertEquals(0, info.getPurgeTasks());
 	}
 
+	@Test
+	public void elasticThreadsOnOneManager() throws InterruptedException {
+
+		String QUEUE = "elasticThreadsOnOneManager";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		TaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+		manager.register(QUEUE, false);
+
+		QueueInfo info = manager.info(QUEUE);
+		QueueSettings settings = info.getSettings();
+		settings.setTaskTimeoutSeconds(10);
+		settings.setTaskInterruptTimeoutSeconds(0);
+
+		settings.setMinThreads(1);
+		settings.setMaxThreads(5);
+		settings.setQueueMaxSleepTimeSeconds(2); // backlog is checked every 2 seconds
+
+		manager.set(QUEUE, settings);
+
+		for (int i = 0; i < 60; i++) {
+			service.add(new LongRunningTask("Long: " + i, 1000), QUEUE); // one second for each task (one thread would need 60s)
+		}
+
+		manager.start(QUEUE);
+
+		// more tasks waiting than threads ... a thread is added every 4 seconds until 5 threads are running (about 20s in total)
+		Thread.sleep(50 * 1000);
+
+		List<QueueTask> list = queues.list(TaskState.finished, QUEUE);
+		assertEquals(60, list.size());
+
+		manager.stop(QUEUE);
+	}
+
 	@Test
 	public void multipleThreadsWithOneTimeOutTask() throws InterruptedException {
 
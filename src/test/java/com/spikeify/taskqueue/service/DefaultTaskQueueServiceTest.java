@@ -3,13 +3,16 @@ package com.spikeify.taskqueue.service;
 import com.spikeify.Spikeify;
 import com.spikeify.taskqueue.*;
 import com.spikeify.taskqueue.entities.QueueInfo;
+import com.spikeify.taskqueue.entities.QueueSettings;
 import com.spikeify.taskqueue.entities.QueueTask;
+import com.spikeify.taskqueue.entities.TaskPriority;
 import com.spikeify.taskqueue.entities.TaskState;
 import com.spikeify.taskqueue.entities.TaskStatistics;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -114,6 +117,380 @@ public class DefaultTaskQueueServiceTest {
 		assertNull(service.next(QUEUE)); // no tasks left
 	}
 
+	@Test
+	public void testNextBatch() throws Exception {
+
+		String QUEUE = "testNextBatch";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+		manager.register(QUEUE, false);
+
+		for (int i = 0; i < 10; i++) {
+			service.add(new TestTask(i), QUEUE);
+		}
+
+		List<QueueTask> claimed = service.next(QUEUE, 4);
+		assertEquals(4, claimed.size());
+
+		for (QueueTask task : claimed) {
+			assertEquals(TaskState.running, task.getState());
+			assertEquals(1, task.getRunCount());
+		}
+
+		QueueInfo info = manager.info(QUEUE);
+		assertEquals(6, info.getQueuedTasks());
+		assertEquals(4, info.getRunningTasks());
+
+		// claim rest of tasks
+		claimed = service.next(QUEUE, 10);
+		assertEquals(6, claimed.size());
+
+		assertEquals(0, service.next(QUEUE, 10).size()); // no tasks left
+	}
+
+	@Test
+	public void testNextByPriority() throws Exception {
+
+		String QUEUE = "testNextByPriority";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+		manager.register(QUEUE, false);
+
+		// low priority tasks added first
+		for (int i = 0; i < 3; i++) {
+			service.add(new TestTask(i), QUEUE, TaskPriority.low);
+		}
+
+		for (int i = 0; i < 3; i++) {
+			service.add(new TestTask(i), QUEUE);
+		}
+
+		for (int i = 0; i < 3; i++) {
+			service.add(new TestTask(i), QUEUE, TaskPriority.high);
+		}
+
+		TaskPriority[] expected = {TaskPriority.high, TaskPriority.normal, TaskPriority.low};
+
+		for (TaskPriority priority : expected) {
+			for (int i = 0; i < 3; i++) {
+				QueueTask task = service.next(QUEUE);
+				assertNotNull(task);
+				assertEquals(priority, task.getPriority());
+			}
+		}
+
+		assertNull(service.next(QUEUE));
+	}
+
+	@Test
+	public void testPriorityAging() throws Exception {
+
+		String QUEUE = "testPriorityAging";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+		manager.register(QUEUE, false);
+
+		QueueSettings settings = manager.info(QUEUE).getSettings();
+		settings.setPriorityAgingSeconds(1);
+		manager.set(QUEUE, settings);
+
+		service.add(new TestTask(0), QUEUE, TaskPriority.low);
+
+		// let low priority task age
+		Thread.sleep((QueueTask.OPEN_BUCKET_MILLIS * 2) + 1000);
+
+		service.add(new TestTask(1), QUEUE, TaskPriority.high);
+		service.add(new TestTask(2), QUEUE, TaskPriority.high);
+
+		// first look up finds oldest task of each priority ... highest priority is served
+		QueueTask task = service.next(QUEUE);
+		assertNotNull(task);
+		assertEquals(TaskPriority.high, task.getPriority());
+
+		// low priority task waited long enough ... served before remaining high priority task
+		task = service.next(QUEUE);
+		assertNotNull(task);
+		assertEquals(TaskPriority.low, task.getPriority());
+	}
+
+	@Test
+	public void testNextDelayed() throws Exception {
+
+		String QUEUE = "testNextDelayed";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+		manager.register(QUEUE, false);
+
+		service.add(new TestTask(0), QUEUE, System.currentTimeMillis() + 3000);
+		service.add(new TestTask(1), QUEUE, System.currentTimeMillis() + 60 * 60 * 1000L); // far in future
+
+		// not due yet
+		assertNull(service.next(QUEUE));
+
+		// delayed tasks are counted and listed apart from queued tasks
+		QueueInfo info = manager.info(QUEUE);
+		assertEquals(2, info.getDelayedTasks());
+		assertEquals(0, info.getQueuedTasks());
+		assertEquals(2, service.listDelayed(QUEUE).size());
+		assertEquals(0, service.list(TaskState.queued, QUEUE).size());
+
+		Thread.sleep(4000);
+
+		QueueTask task = service.next(QUEUE);
+		assertNotNull(task);
+		assertEquals(TaskState.running, task.getState());
+		assertEquals(0, ((TestTask) task.getJob()).getProperty());
+
+		// other task is still waiting
+		assertNull(service.next(QUEUE));
+
+		info = manager.info(QUEUE);
+		assertEquals(1, info.getDelayedTasks());
+		assertEquals(0, info.getQueuedTasks());
+		assertEquals(1, info.getRunningTasks());
+	}
+
+	@Test
+	public void testRetryBackoff() throws Exception {
+
+		String QUEUE = "testRetryBackoff";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+		manager.register(QUEUE, false);
+
+		QueueSettings settings = manager.info(QUEUE).getSettings();
+		settings.setMaxRetries(2);
+		settings.setRetryBackoffSeconds(2);
+		manager.set(QUEUE, settings);
+
+		service.add(new TestTask(0), QUEUE);
+
+		QueueTask task = service.next(QUEUE);
+		assertNotNull(task);
+
+		task = service.transition(task, TaskState.failed);
+		assertNotNull(task);
+		assertTrue(task.isDelayed());
+		assertFalse(task.isLocked());
+
+		// waiting for retry
+		assertNull(service.next(QUEUE));
+
+		Thread.sleep(3000);
+
+		task = service.next(QUEUE);
+		assertNotNull(task);
+		assertEquals(2, task.getRunCount());
+
+		// max retries reached ... no more retries
+		task = service.transition(task, TaskState.failed);
+		assertNotNull(task);
+		assertFalse(task.isDelayed());
+		assertTrue(task.isLocked());
+	}
+
+	@Test
+	public void testDeadLetterAndRedrive() throws Exception {
+
+		String QUEUE = "testDeadLetterAndRedrive";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+		manager.register(QUEUE, false);
+
+		QueueSettings settings = manager.info(QUEUE).getSettings();
+		settings.setMaxRetries(1);
+		settings.setDeadLetter(true);
+		manager.set(QUEUE, settings);
+
+		for (int i = 0; i < 3; i++) {
+			service.add(new TestTask(i), QUEUE);
+		}
+
+		for (int i = 0; i < 3; i++) {
+			QueueTask task = service.next(QUEUE);
+			assertNotNull(task);
+
+			task = service.transition(task, TaskState.failed);
+			assertNotNull(task);
+			assertEquals(TaskState.dead, task.getState());
+			assertTrue(task.isLocked());
+		}
+
+		assertNull(service.next(QUEUE));
+		assertEquals(0, service.list(TaskState.failed, QUEUE).size());
+		assertEquals(3, service.list(TaskState.dead, QUEUE).size());
+
+		QueueInfo info = manager.info(QUEUE);
+		assertEquals(3, info.getDeadTasks());
+		assertEquals(0, info.getFailedTasks());
+
+		// re-queue in batches
+		assertEquals(2, service.redrive(QUEUE, 2));
+		assertEquals(1, service.redrive(QUEUE, 2));
+		assertEquals(0, service.redrive(QUEUE, 2));
+
+		info = manager.info(QUEUE);
+		assertEquals(0, info.getDeadTasks());
+		assertEquals(3, info.getQueuedTasks());
+
+		QueueTask task = service.next(QUEUE);
+		assertNotNull(task);
+		assertEquals(1, task.getRunCount());
+	}
+
+	@Test
+	public void testAddWithDedupKey() throws Exception {
+
+		String QUEUE = "testAddWithDedupKey";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+		manager.register(QUEUE, false);
+
+		QueueTask first = service.add(new TestTask(0), QUEUE, "key");
+		QueueTask second = service.add(new TestTask(1), QUEUE, "key");
+
+		// same task is returned ... only one added
+		assertEquals(first.getId(), second.getId());
+		assertEquals(1, service.list(TaskState.queued, QUEUE).size());
+
+		// different key ... added
+		service.add(new TestTask(2), QUEUE, "other");
+		assertEquals(2, service.list(TaskState.queued, QUEUE).size());
+
+		// still a duplicate while running
+		QueueTask running = service.transition(first, TaskState.running);
+		assertNotNull(running);
+		assertEquals(first.getId(), service.add(new TestTask(3), QUEUE, "key").getId());
+
+		// done ... key can be used again
+		service.transition(running, TaskState.finished);
+
+		QueueTask third = service.add(new TestTask(4), QUEUE, "key");
+		assertNotEquals(first.getId(), third.getId());
+		assertEquals(2, service.list(TaskState.queued, QUEUE).size());
+	}
+
+	@Test
+	public void testRateLimitedNext() throws Exception {
+
+		String QUEUE = "testRateLimitedNext";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+		manager.register(QUEUE, false);
+
+		QueueSettings settings = manager.info(QUEUE).getSettings();
+		settings.setMaxStartsPerSecond(2);
+		manager.set(QUEUE, settings);
+
+		for (int i = 0; i < 6; i++) {
+			service.add(new TestTask(i), QUEUE);
+		}
+
+		long start = System.currentTimeMillis();
+
+		// two tasks are started immediately ... others at two per second
+		for (int i = 0; i < 6; i++) {
+			assertNotNull(service.next(QUEUE));
+		}
+
+		long duration = System.currentTimeMillis() - start;
+		assertTrue("Took only: " + duration + "ms", duration >= 1500);
+	}
+
+	@Test
+	public void testMaxRunningPermits() throws Exception {
+
+		String QUEUE = "testMaxRunningPermits";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+		manager.register(QUEUE, false);
+
+		QueueSettings settings = manager.info(QUEUE).getSettings();
+		settings.setMaxRunning(2);
+		manager.set(QUEUE, settings);
+
+		for (int i = 0; i < 5; i++) {
+			service.add(new TestTask(i), QUEUE);
+		}
+
+		QueueTask first = service.next(QUEUE);
+		assertNotNull(first);
+		assertNotNull(service.next(QUEUE));
+
+		// all permits taken ... refuse to claim
+		assertNull(service.next(QUEUE));
+		assertEquals(0, service.next(QUEUE, 2).size());
+
+		// one is done ... permit is released
+		assertNotNull(service.transition(first, TaskState.finished));
+
+		List<QueueTask> claimed = service.next(QUEUE, 2);
+		assertEquals(1, claimed.size());
+
+		QueueInfo info = manager.info(QUEUE);
+		assertEquals(1, info.getPermitWaits());
+		assertEquals(2, info.getRunningTasks());
+	}
+
+	@Test
+	public void testGroupTransition() throws Exception {
+
+		String QUEUE = "testGroupTransition";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+		manager.register(QUEUE, false);
+
+		for (int i = 0; i < 3; i++) {
+			service.add(new TestTask(i), QUEUE);
+		}
+
+		List<QueueTask> claimed = service.next(QUEUE, 3);
+		assertEquals(3, claimed.size());
+
+		// finished, interrupted and a stale copy
+		QueueTask stale = claimed.get(2).copy();
+		assertNotNull(service.transition(claimed.get(2), TaskState.finished));
+
+		List<QueueTask> stored = service.transition(Arrays.asList(claimed.get(0), claimed.get(1), stale),
+													Arrays.asList(TaskState.finished, TaskState.interrupted, TaskState.failed));
+
+		assertEquals(3, stored.size());
+		assertEquals(TaskState.finished, stored.get(0).getState());
+		assertEquals(TaskState.interrupted, stored.get(1).getState());
+		assertNull(stored.get(2));
+
+		QueueInfo info = manager.info(QUEUE);
+		assertEquals(0, info.getRunningTasks());
+		assertEquals(2, info.getFinishedTasks());
+		assertEquals(1, info.getInterruptedTasks());
+	}
+
+	@Test
+	public void testTransitionCollision() throws Exception {
+
+		String QUEUE = "testTransitionCollision";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+
+		QueueTask added = service.add(new TestTask(0), QUEUE);
+
+		// two threads holding same version of task
+		QueueTask first = spikeify.get(QueueTask.class).key(added.getId()).now();
+		QueueTask second = spikeify.get(QueueTask.class).key(added.getId()).now();
+
+		QueueTask running = service.transition(first, TaskState.running);
+		assertNotNull(running);
+		assertEquals(TaskState.running, running.getState());
+
+		// second one is stale ... transition must fail
+		assertNull(service.transition(second, TaskState.running));
+		assertEquals(TaskState.queued, second.getState()); // left intact
+
+		// running task can be finished
+		QueueTask finished = service.transition(running, TaskState.finished);
+		assertNotNull(finished);
+		assertEquals(TaskState.finished, finished.getState());
+	}
+
 	@Test
 	public void testNextMultipleWorkers() throws Exception {
 
@@ -3,6 +3,7 @@ package com.spikeify.taskqueue.service;
 import com.spikeify.Spikeify;
 import com.spikeify.taskqueue.*;
 import com.spikeify.taskqueue.entities.QueueInfo;
+import com.spikeify.taskqueue.entities.QueueSettings;
 import com.spikeify.taskqueue.entities.QueueTask;
 import com.spikeify.taskqueue.entities.TaskResultState;
 import com.spikeify.taskqueue.entities.TaskState;
@@ -16,6 +17,7 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public class MultithreadTaskExecutorServiceTest {
@@ -139,6 +141,118 @@ public class MultithreadTaskExecutorServiceTest {
 		}
 	}
 
+	@Test
+	public void runMultipleExecutorsWithDispatcher() throws Exception {
+
+		String QUEUE = "runMultipleExecutorsWithDispatcher";
+		AtomicInteger completed = new AtomicInteger(0);
+		AtomicInteger failed = new AtomicInteger(0);
+
+		int NUMBER_OF_JOBS = 500;
+		int WORKERS = 5;
+
+		DefaultTaskQueueService service = new DefaultTaskQueueService(spikeify);
+
+		// add tasks to queue
+		for (int i = 0; i < NUMBER_OF_JOBS; i++) {
+			Job dummy = new TestTask(i);
+			service.add(dummy, QUEUE);
+		}
+
+		QueueSettings settings = new QueueSettings();
+		settings.setPrefetchSize(20);
+		settings.setPrefetchWatermark(5);
+
+		// single dispatcher shared by all workers
+		QueueDispatcher dispatcher = new QueueDispatcher(service, QUEUE, settings);
+
+		Thread[] threads = new Thread[WORKERS];
+		int[] workCompleted = new int[WORKERS];
+
+		for (int i = 0; i < WORKERS; i++) {
+			final int index = i;
+
+			Runnable runnable = new Runnable() {
+				@Override
+				public void run() {
+
+					TaskExecutorService worker = new DefaultTaskExecutorService(service, QUEUE, dispatcher);
+					workCompleted[index] = execute(worker, completed, failed);
+				}
+			};
+
+			threads[i] = new Thread(runnable);
+		}
+
+		for (int i = 0; i < WORKERS; i++) {
+			threads[i].start();
+		}
+		for (int i = 0; i < WORKERS; i++) {
+			threads[i].join();
+		}
+
+		int total = 0;
+		for (int i = 0; i < WORKERS; i++) {
+			total = total + workCompleted[i];
+		}
+
+		assertEquals(NUMBER_OF_JOBS, total);
+		assertEquals(0, failed.get());
+		assertEquals(0, dispatcher.size());
+
+		List<QueueTask> list = spikeify.scanAll(QueueTask.class).now();
+		for (QueueTask task : list) {
+			assertEquals("Task was run more than once: " + task.getId(), 1, task.getRunCount());
+		}
+	}
+
+	@Test
+	public void bufferedTasksAreRenewed() throws Exception {
+
+		String QUEUE = "bufferedTasksAreRenewed";
+
+		DefaultTaskQueueService service = new DefaultTaskQueueService(spikeify);
+		TaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+
+		// short time out ... buffered tasks would time out before taken if not renewed
+		QueueSettings settings = new QueueSettings();
+		settings.setTaskTimeoutSeconds(1);
+		settings.setPrefetchSize(5);
+		manager.register(QUEUE, settings, false);
+
+		for (int i = 0; i < 5; i++) {
+			service.add(new TestTask(i), QUEUE);
+		}
+
+		QueueDispatcher dispatcher = new QueueDispatcher(service, QUEUE, settings);
+		QueueTask first = dispatcher.next();
+		assertNotNull(first);
+		assertEquals(4, dispatcher.size());
+
+		// wait past deadline given when claimed (time out + slack)
+		Thread.sleep((1 + DefaultTaskQueueService.DEADLINE_SLACK_SECONDS + 2) * 1000L);
+
+		long now = System.currentTimeMillis();
+		List<QueueTask> running = service.list(TaskState.running, QUEUE);
+		assertEquals(5, running.size());
+
+		for (QueueTask task : running) {
+			if (!task.getId().equals(first.getId())) {
+				assertTrue("Claim of buffered task: " + task.getId() + " was not renewed!", task.getDeadline() > now);
+			}
+		}
+
+		// all buffered tasks are still claimed
+		for (int i = 0; i < 4; i++) {
+			QueueTask task = dispatcher.next();
+			assertNotNull(task);
+			assertEquals(1, task.getRunCount());
+		}
+
+		dispatcher.release();
+		manager.shutdown();
+	}
+
 	@Test
 	public void runMoreWorkersThanJobs() throws Exception {
 
@@ -0,0 +1,128 @@
+package com.spikeify.taskqueue.service;
+
+import com.spikeify.Spikeify;
+import com.spikeify.taskqueue.TestHelper;
+import com.spikeify.taskqueue.entities.QueueInfo;
+import com.spikeify.taskqueue.entities.TaskState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QueueInfoCounterTest {
+
+	private Spikeify spikeify;
+
+	@Before
+	public void setUp() {
+
+		spikeify = TestHelper.getSpikeify();
+		spikeify.truncateNamespace("test");
+	}
+
+	@After
+	public void tearDown() {
+
+		spikeify.truncateNamespace("test");
+	}
+
+	@Test
+	public void countIsSkippedForQueueNotRegistered() {
+
+		QueueInfoCounter counter = new QueueInfoCounter(spikeify, 0);
+
+		counter.count("notRegistered", null, TaskState.queued, 1);
+
+		// no partial queue info is created
+		assertNull(spikeify.get(QueueInfo.class).key("notRegistered").now());
+	}
+
+	@Test
+	public void countAfterRegister() {
+
+		String QUEUE = "countAfterRegister";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+
+		QueueInfoCounter counter = new QueueInfoCounter(spikeify, 0);
+
+		// queue not registered yet ... missing queue info is not cached
+		counter.count(QUEUE, null, TaskState.queued, 1);
+
+		manager.register(QUEUE, false);
+		counter.count(QUEUE, null, TaskState.queued, 1);
+
+		QueueInfo info = manager.info(QUEUE);
+		assertEquals(1, info.getQueuedTasks());
+		assertEquals(1, info.getTotalTasks());
+	}
+
+	@Test
+	public void countAfterUnregister() {
+
+		String QUEUE = "countAfterUnregister";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+
+		QueueInfoCounter counter = new QueueInfoCounter(spikeify, 0);
+
+		manager.register(QUEUE, false);
+		counter.count(QUEUE, null, TaskState.queued, 1);
+		assertEquals(1, manager.info(QUEUE).getQueuedTasks());
+
+		// queue info found before is forgotten ... not recreated by counting
+		manager.unregister(QUEUE);
+		counter.count(QUEUE, null, TaskState.queued, 1);
+
+		assertNull(manager.info(QUEUE));
+	}
+
+	@Test
+	public void countInBackground() throws InterruptedException {
+
+		String QUEUE = "countInBackground";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+
+		manager.register(QUEUE, false);
+
+		QueueInfoCounter counter = new QueueInfoCounter(spikeify, 100);
+
+		for (int i = 0; i < 10; i++) {
+			counter.count(QUEUE, null, TaskState.queued, 1);
+		}
+
+		counter.count(QUEUE, TaskState.queued, TaskState.running, 2);
+
+		// stored with next flush
+		Thread.sleep(500);
+
+		QueueInfo info = manager.info(QUEUE);
+		assertEquals(8, info.getQueuedTasks());
+		assertEquals(2, info.getRunningTasks());
+		assertEquals(10, info.getTotalTasks());
+	}
+
+	@Test
+	public void countStoredWhenClosed() {
+
+		String QUEUE = "countStoredWhenClosed";
+		TaskQueueService service = new DefaultTaskQueueService(spikeify);
+		DefaultTaskQueueManager manager = new DefaultTaskQueueManager(spikeify, service);
+
+		manager.register(QUEUE, false);
+
+		// flushed in background far later
+		QueueInfoCounter counter = new QueueInfoCounter(spikeify, 60 * 1000L);
+		counter.count(QUEUE, null, TaskState.queued, 1);
+		assertEquals(0, manager.info(QUEUE).getQueuedTasks());
+
+		// pending changes are stored when closed ... and immediately after
+		counter.close();
+		assertEquals(1, manager.info(QUEUE).getQueuedTasks());
+
+		counter.count(QUEUE, null, TaskState.queued, 1);
+		assertEquals(2, manager.info(QUEUE).getQueuedTasks());
+	}
+}
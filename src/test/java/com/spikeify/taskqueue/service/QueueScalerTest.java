@@ -0,0 +1,178 @@
+package com.spikeify.taskqueue.service;
+
+import com.spikeify.Spikeify;
+import com.spikeify.taskqueue.TaskContext;
+import com.spikeify.taskqueue.TaskResult;
+import com.spikeify.taskqueue.TestHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueueScalerTest {
+
+	private Spikeify spikeify;
+
+	private TaskQueueManager manager;
+
+	private ScheduledThreadPoolExecutor pool;
+
+	@Before
+	public void setUp() {
+
+		spikeify = TestHelper.getSpikeify();
+		spikeify.truncateNamespace("test");
+
+		manager = new DefaultTaskQueueManager(spikeify, new DefaultTaskQueueService(spikeify));
+		pool = new ScheduledThreadPoolExecutor(1, new TaskThreadFactory("scaler-test", true, false));
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+
+		pool.shutdownNow();
+		manager.shutdown();
+
+		spikeify.truncateNamespace("test");
+	}
+
+	@Test
+	public void poolGrowsWithSchedulers() {
+
+		QueueScaler scaler = new QueueScaler("poolGrowsWithSchedulers", manager, pool, new QueueScaler.SchedulerFactory() {
+			@Override
+			public QueueScheduler create() {
+
+				return new QueueScheduler(new EmptyQueueExecutor(), pool, 10, 1, new TaskThreadPoolContext(pool));
+			}
+		}, 3, 3, 1000);
+
+		// one thread for purge and watch tasks ... one per scheduler
+		scaler.start();
+
+		assertEquals(3, scaler.getThreads());
+		assertEquals(4, pool.getCorePoolSize());
+	}
+
+	@Test
+	public void poolShrinksOnceStuckSchedulerExits() throws Exception {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean first = new AtomicBoolean(true);
+
+		// time outs must not wait for a thread of the pool
+		ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1);
+
+		QueueScaler scaler = new QueueScaler("poolShrinksOnceStuckSchedulerExits", manager, pool, new QueueScaler.SchedulerFactory() {
+			@Override
+			public QueueScheduler create() {
+
+				// busy queue ... first task ignores interrupts until released
+				return new QueueScheduler(new BusyQueueExecutor(first, release), watchdog, 1, 1, new TaskThreadPoolContext(pool));
+			}
+		}, 1, 1, 1000);
+
+		scaler.start();
+		assertEquals(2, pool.getCorePoolSize());
+
+		// wait for first task to be killed (time out + interrupt time out)
+		Thread.sleep(3000);
+
+		// blocked thread is replaced ... pool grows
+		scaler.run();
+		assertEquals(1, scaler.getThreads());
+		assertEquals(3, pool.getCorePoolSize());
+
+		// killed task returns ... stopped scheduler exits even if queue is busy
+		release.countDown();
+		Thread.sleep(500);
+
+		scaler.run();
+		assertEquals(1, scaler.getThreads());
+		assertEquals(2, pool.getCorePoolSize());
+
+		watchdog.shutdownNow();
+	}
+
+	/**
+	 * Executor of queue with tasks always waiting ... first task executed blocks until released
+	 */
+	private static class BusyQueueExecutor implements TaskExecutorService {
+
+		private final AtomicBoolean first;
+
+		private final CountDownLatch release;
+
+		private BusyQueueExecutor(AtomicBoolean blockFirst, CountDownLatch released) {
+
+			first = blockFirst;
+			release = released;
+		}
+
+		@Override
+		public TaskResult execute(TaskContext context) {
+
+			if (first.compareAndSet(true, false)) {
+
+				// ignores interrupts
+				while (release.getCount() > 0) {
+					try {
+						release.await();
+					}
+					catch (InterruptedException e) {
+						// keep blocking
+					}
+				}
+			}
+			else {
+				try {
+					Thread.sleep(10);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			return TaskResult.ok();
+		}
+
+		@Override
+		public boolean isRunning() {
+
+			return true;
+		}
+
+		@Override
+		public void release() {
+
+		}
+	}
+
+	/**
+	 * Executor of empty queue
+	 */
+	private static class EmptyQueueExecutor implements TaskExecutorService {
+
+		@Override
+		public TaskResult execute(TaskContext context) {
+
+			return null;
+		}
+
+		@Override
+		public boolean isRunning() {
+
+			return false;
+		}
+
+		@Override
+		public void release() {
+
+		}
+	}
+}